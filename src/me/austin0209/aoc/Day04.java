@@ -2,12 +2,17 @@ package me.austin0209.aoc;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.Function;
 import java.util.stream.Stream;
@@ -29,6 +34,9 @@ public class Day04 {
     record Win(int finalScore, int drawIndex) {
     }
 
+    record Standings(Win first, Win last) {
+    }
+
     static class GameSession {
         int lastDrawnIndex;
         List<Board> currentBoards;
@@ -128,6 +136,231 @@ public class Day04 {
 
             return lastWin.finalScore;
         }
+
+        // Maps each drawn value to the index it is first drawn at, or Integer.MAX_VALUE if never drawn.
+        int[] drawPositions() {
+            int maxValue = draws.stream().mapToInt(Integer::intValue).max().orElse(0);
+            int[] positions = new int[maxValue + 1];
+            Arrays.fill(positions, Integer.MAX_VALUE);
+            for (int i = draws.size() - 1; i >= 0; i--) {
+                positions[draws.get(i)] = i;
+            }
+
+            return positions;
+        }
+
+        // A line completes on the latest draw among its spaces, and the board wins on its earliest
+        // completed line, so the win can be read straight off the draw positions without simulating.
+        Win computeWin(Board board, int[] positions) {
+            int[] spacePositions = new int[board.boardSpaces.size()];
+            for (int i = 0; i < spacePositions.length; i++) {
+                int value = board.boardSpaces.get(i).value;
+                spacePositions[i] = value < positions.length ? positions[value] : Integer.MAX_VALUE;
+            }
+
+            int[] rowLatest = new int[board.rows];
+            int[] columnLatest = new int[board.columns];
+            for (int y = 0; y < board.rows; y++) {
+                for (int x = 0; x < board.columns; x++) {
+                    int position = spacePositions[x + y * board.columns];
+                    rowLatest[y] = Math.max(rowLatest[y], position);
+                    columnLatest[x] = Math.max(columnLatest[x], position);
+                }
+            }
+
+            int winIndex = Math.min(Arrays.stream(rowLatest).min().orElseThrow(),
+                    Arrays.stream(columnLatest).min().orElseThrow());
+            if (winIndex == Integer.MAX_VALUE) return null;
+
+            int sumOfUnmarked = 0;
+            for (int i = 0; i < spacePositions.length; i++) {
+                if (spacePositions[i] > winIndex) sumOfUnmarked += board.boardSpaces.get(i).value;
+            }
+
+            return new Win(draws.get(winIndex) * sumOfUnmarked, winIndex);
+        }
+
+        // Computes the first and last winners of every board in one parallel pass.
+        Standings playAll() {
+            int[] positions = drawPositions();
+            var wins = initialBoards.parallelStream()
+                    .map(board -> computeWin(board, positions))
+                    .filter(Objects::nonNull)
+                    .toList();
+
+            var first = wins.stream()
+                    .min(Comparator.comparingInt(w -> w.drawIndex))
+                    .orElseThrow(() -> new RuntimeException("Nobody won..."));
+            var last = wins.stream()
+                    .max(Comparator.comparingInt(w -> w.drawIndex))
+                    .orElseThrow();
+
+            return new Standings(first, last);
+        }
+    }
+
+    record LiveWin(int boardId, long finalScore) {
+    }
+
+    // Long-running bingo where boards of any rectangular size can be registered and draws are pushed one at a
+    // time. A board only sees draws pushed after it was registered.
+    static class BingoService {
+        private static class LiveBoard {
+            final int[] values;
+            final boolean[] marked;
+            final int columns;
+            final int[] rowCounts;
+            final int[] columnCounts;
+            long sumOfUnmarked;
+            int unmarked;
+            boolean won;
+
+            LiveBoard(int[] values, int columns, int rows) {
+                this.values = values;
+                this.marked = new boolean[values.length];
+                this.columns = columns;
+                this.rowCounts = new int[rows];
+                this.columnCounts = new int[columns];
+                for (int value : values) sumOfUnmarked += value;
+                this.unmarked = values.length;
+            }
+
+            // Marks the space and returns true if this completed one of its lines.
+            boolean mark(int cell) {
+                if (marked[cell]) return false;
+                marked[cell] = true;
+                sumOfUnmarked -= values[cell];
+                unmarked--;
+
+                int x = cell % columns;
+                int y = cell / columns;
+                return ++rowCounts[y] == columns | ++columnCounts[x] == rowCounts.length;
+            }
+        }
+
+        // Every (board, cell) that holds a given value, so a draw only touches the spaces it marks.
+        private static class Occurrences {
+            int[] boardIds = new int[4];
+            int[] cells = new int[4];
+            int size;
+
+            void add(int boardId, int cell) {
+                if (size == boardIds.length) {
+                    boardIds = Arrays.copyOf(boardIds, size * 2);
+                    cells = Arrays.copyOf(cells, size * 2);
+                }
+                boardIds[size] = boardId;
+                cells[size] = cell;
+                size++;
+            }
+        }
+
+        // Indexed by board id, with null for boards that have been retired.
+        private final List<LiveBoard> boards = new ArrayList<>();
+        private final Map<Integer, Occurrences> occurrences = new HashMap<>();
+        // Occurrences left for live boards and for retired ones. Retired boards' occurrences are skipped when their
+        // number is drawn, and swept out whenever they outnumber the live ones, so memory and per-draw work follow
+        // the live boards rather than every board ever registered.
+        private long liveEntries;
+        private long retiredEntries;
+
+        // Returns the id of the new board.
+        int register(int[] values, int columns, int rows) {
+            if (values.length != columns * rows) throw new IllegalArgumentException("Board is not " + columns + "x" + rows);
+
+            int boardId = boards.size();
+            boards.add(new LiveBoard(values.clone(), columns, rows));
+            for (int cell = 0; cell < values.length; cell++) {
+                occurrences.computeIfAbsent(values[cell], v -> new Occurrences()).add(boardId, cell);
+            }
+            liveEntries += values.length;
+
+            return boardId;
+        }
+
+        // Drops a board, whether or not it has won. Boards are also dropped on their own as soon as they win.
+        void unregister(int boardId) {
+            var board = boards.get(boardId);
+            if (board == null) return;
+
+            boards.set(boardId, null);
+            liveEntries -= board.unmarked;
+            retiredEntries += board.unmarked;
+            if (retiredEntries > liveEntries) compact();
+        }
+
+        private void compact() {
+            for (var it = occurrences.values().iterator(); it.hasNext(); ) {
+                var entries = it.next();
+                int kept = 0;
+                for (int i = 0; i < entries.size; i++) {
+                    if (boards.get(entries.boardIds[i]) == null) continue;
+                    entries.boardIds[kept] = entries.boardIds[i];
+                    entries.cells[kept] = entries.cells[i];
+                    kept++;
+                }
+
+                if (kept == 0) it.remove();
+                else {
+                    entries.size = kept;
+                    entries.boardIds = Arrays.copyOf(entries.boardIds, kept);
+                    entries.cells = Arrays.copyOf(entries.cells, kept);
+                }
+            }
+            retiredEntries = 0;
+        }
+
+        // Reads blank-line separated boards, registering each one as soon as its last row is read.
+        void registerBoards(BufferedReader reader) throws IOException {
+            List<int[]> rows = new ArrayList<>();
+            String line;
+            do {
+                line = reader.readLine();
+                if (line != null && !line.isBlank()) {
+                    rows.add(Stream.of(line.trim().split("\\s+")).mapToInt(Integer::parseInt).toArray());
+                } else if (!rows.isEmpty()) {
+                    int columns = rows.get(0).length;
+                    int[] values = new int[columns * rows.size()];
+                    for (int y = 0; y < rows.size(); y++) {
+                        if (rows.get(y).length != columns)
+                            throw new IllegalArgumentException("Board row " + y + " has " + rows.get(y).length + " values, expected " + columns);
+                        System.arraycopy(rows.get(y), 0, values, y * columns, columns);
+                    }
+                    register(values, columns, rows.size());
+                    rows.clear();
+                }
+            } while (line != null);
+        }
+
+        // Marks the number on every live board and returns the boards that won on this draw.
+        List<LiveWin> draw(int number) {
+            // Every space holding this number gets marked now, so later repeats of it have nothing left to do.
+            var found = occurrences.remove(number);
+            if (found == null) return List.of();
+
+            List<Integer> winners = new ArrayList<>();
+            for (int i = 0; i < found.size; i++) {
+                var board = boards.get(found.boardIds[i]);
+                if (board == null) {
+                    retiredEntries--;
+                    continue;
+                }
+
+                liveEntries--;
+                if (board.mark(found.cells[i]) && !board.won) {
+                    board.won = true;
+                    winners.add(found.boardIds[i]);
+                }
+            }
+
+            // Scored only once every space is marked, since a board may hold the number more than once.
+            var wins = winners.stream()
+                    .map(id -> new LiveWin(id, number * boards.get(id).sumOfUnmarked))
+                    .toList();
+            winners.forEach(this::unregister);
+
+            return wins;
+        }
     }
 
     static Bingo parseInput(String filename) throws IOException {
@@ -162,7 +395,9 @@ public class Day04 {
 
     public static void main(String[] args) throws IOException {
         Bingo bingo = parseInput("input/day4.txt");
-        System.out.println(bingo.playPart2());
+        var standings = bingo.playAll();
+        System.out.println(standings.first.finalScore);
+        System.out.println(standings.last.finalScore);
     }
 
     @Test
@@ -291,4 +526,56 @@ public class Day04 {
         var score = bingo.playPart2();
         assert (score == 1924);
     }
+
+    @Test
+    void testPlayAll() throws IOException {
+        Bingo bingo = parseInput("input/day4sample.txt");
+        var standings = bingo.playAll();
+        assert (standings.first.finalScore == 4512);
+        assert (standings.last.finalScore == 1924);
+    }
+
+    @Test
+    void testBingoService() throws IOException {
+        var reader = Files.newBufferedReader(Path.of("input/day4sample.txt"));
+        var draws = Stream.of(reader.readLine().split(","))
+                .mapToInt(Integer::parseInt)
+                .toArray();
+
+        var service = new BingoService();
+        service.registerBoards(reader);
+
+        List<LiveWin> wins = new ArrayList<>();
+        for (int number : draws) {
+            wins.addAll(service.draw(number));
+        }
+
+        assert (wins.size() == 3);
+        assert (wins.get(0).finalScore() == 4512);
+        assert (wins.get(2).finalScore() == 1924);
+
+        var rectangular = new BingoService();
+        rectangular.registerBoards(new BufferedReader(new StringReader("1 2 3\n4 5 6\n")));
+        assert (rectangular.draw(2).isEmpty());
+        assert (rectangular.draw(5).equals(List.of(new LiveWin(0, 5 * 14))));
+
+        var repeated = new BingoService();
+        repeated.register(new int[] {7, 7, 1, 2}, 2, 2);
+        assert (repeated.draw(7).equals(List.of(new LiveWin(0, 7 * 3))));
+
+        var retired = new BingoService();
+        retired.register(new int[] {1, 2, 3, 4}, 2, 2);
+        retired.register(new int[] {1, 2, 5, 6}, 2, 2);
+        retired.unregister(0);
+        assert (retired.draw(1).isEmpty());
+        assert (retired.draw(2).equals(List.of(new LiveWin(1, 2 * 11))));
+        assert (retired.draw(5).isEmpty());
+
+        try {
+            new BingoService().registerBoards(new BufferedReader(new StringReader("1 2 3\n4 5\n")));
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // Ragged boards are rejected.
+        }
+    }
 }
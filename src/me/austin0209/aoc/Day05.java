@@ -5,8 +5,10 @@ import org.junit.jupiter.api.Test;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiFunction;
+import java.util.function.IntConsumer;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
@@ -129,9 +131,502 @@ public class Day05 {
                 .count();
     }
 
+    record Overlaps(long part1, long part2) {}
+
+    record Bounds(int minX, int minY, int maxX, int maxY) {
+        int width() { return maxX - minX + 1; }
+        int height() { return maxY - minY + 1; }
+
+        static Bounds of(List<Line> lines) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (var line : lines) {
+                minX = Math.min(minX, Math.min(line.start.x, line.end.x));
+                minY = Math.min(minY, Math.min(line.start.y, line.end.y));
+                maxX = Math.max(maxX, Math.max(line.start.x, line.end.x));
+                maxY = Math.max(maxY, Math.max(line.start.y, line.end.y));
+            }
+
+            return new Bounds(minX, minY, maxX, maxY);
+        }
+    }
+
+    // Steps from start to end, saturating each counter at 2, and returns how many cells just reached 2.
+    static long rasterise(Line line, byte[] world, int minX, int minY, int width) {
+        return rasterise(line.start.x, line.start.y, line.end.x, line.end.y, world, minX, minY, width);
+    }
+
+    static long rasterise(int startX, int startY, int endX, int endY, byte[] world, int minX, int minY, int width) {
+        int dx = Integer.signum(endX - startX);
+        int dy = Integer.signum(endY - startY);
+        int steps = Math.max(Math.abs(endX - startX), Math.abs(endY - startY));
+
+        long newOverlaps = 0;
+        int index = (startX - minX) + (startY - minY) * width;
+        int stride = dx + dy * width;
+        for (int i = 0; i <= steps; i++, index += stride) {
+            if (world[index] < 2 && ++world[index] == 2) newOverlaps++;
+        }
+
+        return newOverlaps;
+    }
+
+    // Solves both parts in one pass over a byte grid covering only the lines' bounding box: the axis-aligned lines
+    // are drawn first, so the overlap count at that point is part 1, and the diagonals then finish part 2.
+    static Overlaps countOverlaps(List<Line> input) {
+        List<Line> lines = input.stream()
+                .filter(l -> l.isVertical() || l.isHorizontal() || l.isDiagonal())
+                .toList();
+        if (lines.isEmpty()) return new Overlaps(0, 0);
+
+        var bounds = Bounds.of(lines);
+        int width = bounds.width();
+        long area = (long) width * bounds.height();
+        if (area > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("World is too large for a grid: " + area);
+        byte[] world = new byte[(int) area];
+
+        long overlaps = 0;
+        for (var line : lines) {
+            if (line.isHorizontal() || line.isVertical()) {
+                overlaps += rasterise(line, world, bounds.minX, bounds.minY, width);
+            }
+        }
+
+        long part1 = overlaps;
+        for (var line : lines) {
+            if (!line.isHorizontal() && !line.isVertical()) {
+                overlaps += rasterise(line, world, bounds.minX, bounds.minY, width);
+            }
+        }
+
+        return new Overlaps(part1, overlaps);
+    }
+
+    // The four ways a vent line can run. Each is described by the coordinate that stays constant along the line
+    // (its key, a * x + b * y) and the coordinate that steps by one along it (its parameter).
+    enum Direction {
+        HORIZONTAL(0, 1), VERTICAL(1, 0), DOWN_DIAGONAL(1, -1), UP_DIAGONAL(1, 1);
+
+        final long a;
+        final long b;
+
+        Direction(long a, long b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        static Direction of(Line line) {
+            if (line.isHorizontal()) return HORIZONTAL;
+            if (line.isVertical()) return VERTICAL;
+            if (line.isDiagonal()) {
+                boolean sameSign = (line.end.x - line.start.x) * (long) (line.end.y - line.start.y) > 0;
+                return sameSign ? DOWN_DIAGONAL : UP_DIAGONAL;
+            }
+            throw new RuntimeException("This line is not horizontal, vertical, or diagonal...");
+        }
+
+        long key(long x, long y) { return a * x + b * y; }
+        long param(long x, long y) { return this == VERTICAL ? y : x; }
+
+        long x(long key, long param) { return this == VERTICAL ? key : param; }
+        long y(long key, long param) {
+            return switch (this) {
+                case HORIZONTAL -> key;
+                case VERTICAL -> param;
+                case DOWN_DIAGONAL -> param - key;
+                case UP_DIAGONAL -> key - param;
+            };
+        }
+
+        // The lattice point where a line of this direction meets one of the other direction, or null if none.
+        Point meet(long key, Direction other, long otherKey) {
+            long det = a * other.b - other.a * b;
+            long xNumerator = key * other.b - otherKey * b;
+            long yNumerator = a * otherKey - other.a * key;
+            if (xNumerator % det != 0 || yNumerator % det != 0) return null;
+            return new Point((int) (xNumerator / det), (int) (yNumerator / det));
+        }
+    }
+
+    record Span(long start, long end) {
+        long size() { return end - start + 1; }
+    }
+
+    // Spans of lattice points covered at least once and at least twice by lines of one direction, grouped by key.
+    record Coverage(Direction direction, Map<Long, List<Span>> once, Map<Long, List<Span>> twice) {
+        boolean coveredTwice(Point point) {
+            var spans = twice.get(direction.key(point.x, point.y));
+            if (spans == null) return false;
+
+            long param = direction.param(point.x, point.y);
+            int low = 0, high = spans.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                var span = spans.get(mid);
+                if (param < span.start) high = mid - 1;
+                else if (param > span.end) low = mid + 1;
+                else return true;
+            }
+
+            return false;
+        }
+
+        long countTwice() {
+            return twice.values().stream()
+                    .flatMap(List::stream)
+                    .mapToLong(Span::size)
+                    .sum();
+        }
+    }
+
+    static Coverage coverage(Direction direction, List<Line> lines) {
+        Map<Long, List<Span>> spansByKey = new HashMap<>();
+        for (var line : lines) {
+            long key = direction.key(line.start.x, line.start.y);
+            long from = direction.param(line.start.x, line.start.y);
+            long to = direction.param(line.end.x, line.end.y);
+            spansByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(new Span(Math.min(from, to), Math.max(from, to)));
+        }
+
+        Map<Long, List<Span>> once = new HashMap<>();
+        Map<Long, List<Span>> twice = new HashMap<>();
+        for (var entry : spansByKey.entrySet()) {
+            var spans = entry.getValue();
+            spans.sort(Comparator.comparingLong(Span::start));
+
+            List<Span> merged = new ArrayList<>();
+            List<Span> doubled = new ArrayList<>();
+            long start = spans.get(0).start;
+            long end = spans.get(0).end;
+            for (var span : spans.subList(1, spans.size())) {
+                // Anything this span shares with the ones before it is covered at least twice.
+                if (span.start <= end) addMerged(doubled, new Span(span.start, Math.min(span.end, end)));
+
+                if (span.start > end + 1) {
+                    merged.add(new Span(start, end));
+                    start = span.start;
+                }
+                end = Math.max(end, span.end);
+            }
+            merged.add(new Span(start, end));
+
+            once.put(entry.getKey(), merged);
+            if (!doubled.isEmpty()) twice.put(entry.getKey(), doubled);
+        }
+
+        return new Coverage(direction, once, twice);
+    }
+
+    // Appends a span that starts no earlier than the last one, merging it in if they touch.
+    private static void addMerged(List<Span> spans, Span span) {
+        if (!spans.isEmpty() && span.start <= spans.get(spans.size() - 1).end + 1) {
+            var last = spans.remove(spans.size() - 1);
+            spans.add(new Span(last.start, Math.max(last.end, span.end)));
+        } else {
+            spans.add(span);
+        }
+    }
+
+    // Sweeps over the first direction's key, keeping the second direction's spans that are live at that key in a
+    // tree, and collects every lattice point where a span of one meets a span of the other.
+    static void collectCrossings(Coverage first, Coverage second, Set<Point> crossings) {
+        record Segment(long key, long low, long high) {}
+
+        // Each span expressed as its own key plus the range of the other direction's key it passes through.
+        BiFunction<Coverage, Direction, List<Segment>> segments = (coverage, other) -> {
+            List<Segment> result = new ArrayList<>();
+            var direction = coverage.direction;
+            coverage.once.forEach((key, spans) -> {
+                for (var span : spans) {
+                    long from = other.key(direction.x(key, span.start), direction.y(key, span.start));
+                    long to = other.key(direction.x(key, span.end), direction.y(key, span.end));
+                    result.add(new Segment(key, Math.min(from, to), Math.max(from, to)));
+                }
+            });
+            return result;
+        };
+
+        var queries = segments.apply(first, second.direction);
+        var intervals = segments.apply(second, first.direction);
+        queries.sort(Comparator.comparingLong(Segment::key));
+        intervals.sort(Comparator.comparingLong(Segment::low));
+
+        TreeMap<Long, Integer> live = new TreeMap<>();
+        PriorityQueue<Segment> ending = new PriorityQueue<>(Comparator.comparingLong(Segment::high));
+        int next = 0;
+        for (var query : queries) {
+            while (next < intervals.size() && intervals.get(next).low <= query.key) {
+                var interval = intervals.get(next++);
+                live.merge(interval.key, 1, Integer::sum);
+                ending.add(interval);
+            }
+            while (!ending.isEmpty() && ending.peek().high < query.key) {
+                live.computeIfPresent(ending.poll().key, (k, count) -> count == 1 ? null : count - 1);
+            }
+
+            for (long otherKey : live.subMap(query.low, true, query.high, true).keySet()) {
+                var point = first.direction.meet(query.key, second.direction, otherKey);
+                if (point != null) crossings.add(point);
+            }
+        }
+    }
+
+    // Counts points covered at least twice using only the line geometry, so memory grows with the number of lines
+    // (and of crossings) rather than with the coordinate range. Overlaps within a direction come from merging each
+    // key's spans; a crossing point of two directions counts once however many directions' doubled spans hold it.
+    static long sweepOverlapCount(List<Line> lines) {
+        var coverages = Arrays.stream(Direction.values())
+                .map(d -> coverage(d, lines.stream().filter(l -> Direction.of(l) == d).toList()))
+                .toList();
+
+        Set<Point> crossings = new HashSet<>();
+        for (int i = 0; i < coverages.size(); i++) {
+            for (int j = i + 1; j < coverages.size(); j++) {
+                collectCrossings(coverages.get(i), coverages.get(j), crossings);
+            }
+        }
+
+        long total = coverages.stream().mapToLong(Coverage::countTwice).sum();
+        for (var point : crossings) {
+            long doubledIn = coverages.stream().filter(c -> c.coveredTwice(point)).count();
+            total += 1 - doubledIn;
+        }
+
+        return total;
+    }
+
+    static Overlaps sweepOverlaps(List<Line> input) {
+        var axisAligned = input.stream()
+                .filter(l -> l.isVertical() || l.isHorizontal())
+                .toList();
+        var all = input.stream()
+                .filter(l -> l.isVertical() || l.isHorizontal() || l.isDiagonal())
+                .toList();
+
+        return new Overlaps(sweepOverlapCount(axisAligned), sweepOverlapCount(all));
+    }
+
+    @FunctionalInterface
+    interface PieceSink {
+        void accept(int tile, int startX, int startY, int endX, int endY);
+    }
+
+    // Cuts the line at tile boundaries, handing each piece to the sink along with the tile it falls in.
+    static void clipToTiles(Line line, Bounds bounds, int tileSize, int tileColumns, PieceSink sink) {
+        int dx = Integer.signum(line.end.x - line.start.x);
+        int dy = Integer.signum(line.end.y - line.start.y);
+        int remaining = Math.max(Math.abs(line.end.x - line.start.x), Math.abs(line.end.y - line.start.y));
+
+        int x = line.start.x;
+        int y = line.start.y;
+        while (remaining >= 0) {
+            int column = (x - bounds.minX) / tileSize;
+            int row = (y - bounds.minY) / tileSize;
+            int tileX = bounds.minX + column * tileSize;
+            int tileY = bounds.minY + row * tileSize;
+
+            // Steps left before the line leaves this tile along each axis.
+            int stepsX = dx > 0 ? tileX + tileSize - 1 - x : dx < 0 ? x - tileX : Integer.MAX_VALUE;
+            int stepsY = dy > 0 ? tileY + tileSize - 1 - y : dy < 0 ? y - tileY : Integer.MAX_VALUE;
+            int steps = Math.min(remaining, Math.min(stepsX, stepsY));
+
+            int endX = x + dx * steps;
+            int endY = y + dy * steps;
+            sink.accept(column + row * tileColumns, x, y, endX, endY);
+
+            x = endX + dx;
+            y = endY + dy;
+            remaining -= steps + 1;
+        }
+    }
+
+    // Line pieces grouped by tile in flat primitive arrays. Tile t's pieces are offsets[t] until offsets[t + 1], with
+    // four coordinates each (start x, start y, end x, end y).
+    record TilePieces(int[] offsets, int[] coordinates) {
+        // Clips the lines twice, both times in parallel: first only counting each tile's pieces to size its range,
+        // then writing every piece at its tile's next free slot.
+        static TilePieces of(List<Line> lines, Bounds bounds, int tileSize, int tileColumns, int tileCount) {
+            var counts = new AtomicIntegerArray(tileCount);
+            lines.parallelStream().forEach(line -> clipToTiles(line, bounds, tileSize, tileColumns,
+                    (tile, startX, startY, endX, endY) -> counts.incrementAndGet(tile)));
+
+            int[] offsets = new int[tileCount + 1];
+            for (int tile = 0; tile < tileCount; tile++) {
+                offsets[tile + 1] = Math.addExact(offsets[tile], counts.get(tile));
+            }
+
+            var cursors = new AtomicIntegerArray(offsets);
+            int[] coordinates = new int[Math.multiplyExact(offsets[tileCount], 4)];
+            lines.parallelStream().forEach(line -> clipToTiles(line, bounds, tileSize, tileColumns,
+                    (tile, startX, startY, endX, endY) -> {
+                        int at = cursors.getAndIncrement(tile) * 4;
+                        coordinates[at] = startX;
+                        coordinates[at + 1] = startY;
+                        coordinates[at + 2] = endX;
+                        coordinates[at + 3] = endY;
+                    }));
+
+            return new TilePieces(offsets, coordinates);
+        }
+
+        int count(int tile) {
+            return offsets[tile + 1] - offsets[tile];
+        }
+
+        long rasterise(int tile, byte[] world, int minX, int minY, int width) {
+            long overlaps = 0;
+            for (int at = offsets[tile] * 4, end = offsets[tile + 1] * 4; at < end; at += 4) {
+                overlaps += Day05.rasterise(coordinates[at], coordinates[at + 1], coordinates[at + 2], coordinates[at + 3],
+                        world, minX, minY, width);
+            }
+
+            return overlaps;
+        }
+    }
+
+    // Splits the world into square tiles and rasterises every tile on the common fork-join pool into its own
+    // counter grid, so workers never share memory. No cell belongs to two tiles, so the tiles' counts just add up.
+    static Overlaps parallelOverlaps(List<Line> input, int tileSize) {
+        List<Line> lines = input.stream()
+                .filter(l -> l.isVertical() || l.isHorizontal() || l.isDiagonal())
+                .toList();
+        if (lines.isEmpty()) return new Overlaps(0, 0);
+
+        var bounds = Bounds.of(lines);
+        int tileColumns = (bounds.width() - 1) / tileSize + 1;
+        int tileRows = (bounds.height() - 1) / tileSize + 1;
+        int tileCount = Math.multiplyExact(tileColumns, tileRows);
+
+        // Axis-aligned pieces are kept apart from diagonal ones so each tile can count part 1 before drawing the rest.
+        var axisPieces = TilePieces.of(lines.stream().filter(l -> l.isHorizontal() || l.isVertical()).toList(),
+                bounds, tileSize, tileColumns, tileCount);
+        var diagonalPieces = TilePieces.of(lines.stream().filter(l -> !l.isHorizontal() && !l.isVertical()).toList(),
+                bounds, tileSize, tileColumns, tileCount);
+
+        return IntStream.range(0, tileCount)
+                .parallel()
+                .mapToObj(tile -> {
+                    if (axisPieces.count(tile) + diagonalPieces.count(tile) < 2) return new Overlaps(0, 0);
+
+                    int tileX = bounds.minX + (tile % tileColumns) * tileSize;
+                    int tileY = bounds.minY + (tile / tileColumns) * tileSize;
+                    int width = Math.min(tileSize, bounds.maxX - tileX + 1);
+                    int height = Math.min(tileSize, bounds.maxY - tileY + 1);
+                    byte[] world = new byte[width * height];
+
+                    long part1 = axisPieces.rasterise(tile, world, tileX, tileY, width);
+                    long part2 = part1 + diagonalPieces.rasterise(tile, world, tileX, tileY, width);
+                    return new Overlaps(part1, part2);
+                })
+                .reduce(new Overlaps(0, 0), (a, b) -> new Overlaps(a.part1 + b.part1, a.part2 + b.part2));
+    }
+
+    static Overlaps parallelOverlaps(List<Line> input) {
+        return parallelOverlaps(input, 256);
+    }
+
+    // Keeps per-cell line counts over a fixed region up to date as lines are added and removed, so the number of
+    // overlapping cells can be read at any time instead of being recomputed. Overlapping cells are also tracked in
+    // a 2D Fenwick tree so the overlaps inside any rectangle can be counted.
+    static class OverlapIndex {
+        final Bounds bounds;
+        private final int[] counts;
+        private final int[] overlapTree;
+        private long overlaps;
+
+        OverlapIndex(Bounds bounds) {
+            this.bounds = bounds;
+            long area = (long) bounds.width() * bounds.height();
+            if (area > Integer.MAX_VALUE / 2) throw new IllegalArgumentException("Region is too large to index: " + area);
+            this.counts = new int[(int) area];
+            this.overlapTree = new int[(bounds.width() + 1) * (bounds.height() + 1)];
+        }
+
+        long overlapCount() {
+            return overlaps;
+        }
+
+        // Number of cells covered at least twice within the inclusive rectangle.
+        long overlapCount(int x1, int y1, int x2, int y2) {
+            int left = Math.max(Math.min(x1, x2), bounds.minX) - bounds.minX;
+            int top = Math.max(Math.min(y1, y2), bounds.minY) - bounds.minY;
+            int right = Math.min(Math.max(x1, x2), bounds.maxX) - bounds.minX;
+            int bottom = Math.min(Math.max(y1, y2), bounds.maxY) - bounds.minY;
+            if (left > right || top > bottom) return 0;
+
+            return prefixOverlaps(right + 1, bottom + 1) - prefixOverlaps(left, bottom + 1)
+                    - prefixOverlaps(right + 1, top) + prefixOverlaps(left, top);
+        }
+
+        void addLine(Line line) {
+            checkLine(line);
+            walk(line, index -> {
+                if (++counts[index] == 2) markOverlap(index, 1);
+            });
+        }
+
+        void removeLine(Line line) {
+            checkLine(line);
+            walk(line, index -> {
+                if (counts[index] == 0) throw new IllegalStateException("Line was never added: " + line);
+            });
+            walk(line, index -> {
+                if (counts[index]-- == 2) markOverlap(index, -1);
+            });
+        }
+
+        private void checkLine(Line line) {
+            if (!line.isHorizontal() && !line.isVertical() && !line.isDiagonal())
+                throw new RuntimeException("This line is not horizontal, vertical, or diagonal...");
+
+            for (var point : List.of(line.start, line.end)) {
+                if (point.x < bounds.minX || point.x > bounds.maxX || point.y < bounds.minY || point.y > bounds.maxY)
+                    throw new IllegalArgumentException("Line is outside the indexed region: " + line);
+            }
+        }
+
+        private void walk(Line line, IntConsumer visit) {
+            int dx = Integer.signum(line.end.x - line.start.x);
+            int dy = Integer.signum(line.end.y - line.start.y);
+            int steps = Math.max(Math.abs(line.end.x - line.start.x), Math.abs(line.end.y - line.start.y));
+
+            int width = bounds.width();
+            int index = (line.start.x - bounds.minX) + (line.start.y - bounds.minY) * width;
+            int stride = dx + dy * width;
+            for (int i = 0; i <= steps; i++, index += stride) {
+                visit.accept(index);
+            }
+        }
+
+        private void markOverlap(int index, int delta) {
+            overlaps += delta;
+
+            int treeWidth = bounds.width() + 1;
+            for (int x = index % bounds.width() + 1; x < treeWidth; x += x & -x) {
+                for (int y = index / bounds.width() + 1; y <= bounds.height(); y += y & -y) {
+                    overlapTree[x + y * treeWidth] += delta;
+                }
+            }
+        }
+
+        // Overlapping cells with column < columns and row < rows.
+        private long prefixOverlaps(int columns, int rows) {
+            int treeWidth = bounds.width() + 1;
+            long total = 0;
+            for (int x = columns; x > 0; x -= x & -x) {
+                for (int y = rows; y > 0; y -= y & -y) {
+                    total += overlapTree[x + y * treeWidth];
+                }
+            }
+
+            return total;
+        }
+    }
+
     public static void main(String[] args) throws FileNotFoundException {
-        System.out.println(solvePart1(parseInput("input/day5.txt")));
-        System.out.println(solvePart2(parseInput("input/day5.txt")));
+        var overlaps = countOverlaps(parseInput("input/day5.txt"));
+        System.out.println(overlaps.part1);
+        System.out.println(overlaps.part2);
     }
 
     @Test
@@ -183,4 +678,47 @@ public class Day05 {
         System.out.println(solvePart2(parseInput("input/day5sample.txt")));
         assert solvePart2(parseInput("input/day5sample.txt")) == 12;
     }
+
+    @Test
+    void testCountOverlaps() throws FileNotFoundException {
+        var overlaps = countOverlaps(parseInput("input/day5sample.txt"));
+        assert overlaps.part1 == 5;
+        assert overlaps.part2 == 12;
+    }
+
+    @Test
+    void testSweepOverlaps() throws FileNotFoundException {
+        var input = parseInput("input/day5sample.txt");
+        assert sweepOverlaps(input).equals(countOverlaps(input));
+
+        var far = List.of(
+                new Line(new Point(0, 50_000_000), new Point(100_000_000, 50_000_000)),
+                new Line(new Point(0, 0), new Point(100_000_000, 100_000_000)),
+                new Line(new Point(50_000_000, 0), new Point(50_000_000, 100_000_000)),
+                new Line(new Point(10, 50_000_000), new Point(20, 50_000_000)));
+        assert sweepOverlaps(far).equals(new Overlaps(12, 12));
+    }
+
+    @Test
+    void testParallelOverlaps() throws FileNotFoundException {
+        var input = parseInput("input/day5sample.txt");
+        assert parallelOverlaps(input).equals(countOverlaps(input));
+        assert parallelOverlaps(input, 3).equals(countOverlaps(input));
+        assert parallelOverlaps(input, 3).part2 == solvePart2(input);
+    }
+
+    @Test
+    void testOverlapIndex() throws FileNotFoundException {
+        var input = parseInput("input/day5sample.txt");
+        var index = new OverlapIndex(new Bounds(0, 0, 9, 9));
+        input.forEach(index::addLine);
+        assert index.overlapCount() == 12;
+        assert index.overlapCount(0, 0, 9, 9) == 12;
+        assert index.overlapCount(0, 0, 4, 4) == 3;
+
+        index.removeLine(input.get(8));
+        var withoutLine = new ArrayList<>(input);
+        withoutLine.remove(8);
+        assert index.overlapCount() == solvePart2(withoutLine);
+    }
 }
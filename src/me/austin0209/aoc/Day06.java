@@ -3,7 +3,10 @@ package me.austin0209.aoc;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.stream.Stream;
 
 public class Day06 {
@@ -23,25 +26,239 @@ public class Day06 {
         return population;
     }
 
+    // A fish whose timer passes 0 restarts at resetTimer and spawns a new fish at spawnTimer.
+    record Lifecycle(int resetTimer, int spawnTimer) {
+        static final Lifecycle DEFAULT = new Lifecycle(6, 8);
+
+        Lifecycle {
+            if (resetTimer < 0 || spawnTimer < 0) throw new IllegalArgumentException("Timers must not be negative");
+        }
+
+        int timers() {
+            return Math.max(resetTimer, spawnTimer) + 1;
+        }
+
+        // Populations are histograms indexed by timer, so they need exactly one slot per timer this lifecycle uses.
+        void checkPopulation(long[] population) {
+            if (population.length != timers()) {
+                throw new IllegalArgumentException("Population has " + population.length + " timers, expected " + timers());
+            }
+        }
+    }
+
     static void simulate(long[] population) {
+        simulate(population, Lifecycle.DEFAULT);
+    }
+
+    static void simulate(long[] population, Lifecycle lifecycle) {
+        lifecycle.checkPopulation(population);
+
         long temp = population[0];
         for (int i = 0; i < population.length - 1; i++) {
             population[i] = population[i + 1];
         }
 
-        population[8] = temp;
-        population[6] += temp;
+        population[population.length - 1] = 0;
+        population[lifecycle.spawnTimer] += temp;
+        population[lifecycle.resetTimer] += temp;
     }
 
-    public static void main(String[] args) throws IOException {
-        long[] population = parseInput("input/day6.txt");
+    // transition[i][j] is how many fish with timer i one fish with timer j turns into after a day.
+    static long[][] transitionMatrix(Lifecycle lifecycle) {
+        int timers = lifecycle.timers();
+        long[][] transition = new long[timers][timers];
+        for (int timer = 1; timer < timers; timer++) {
+            transition[timer - 1][timer] = 1;
+        }
+
+        transition[lifecycle.resetTimer][0] += 1;
+        transition[lifecycle.spawnTimer][0] += 1;
+        return transition;
+    }
+
+    static long[][] transitionMatrix() {
+        return transitionMatrix(Lifecycle.DEFAULT);
+    }
+
+    // Throws ArithmeticException rather than overflowing.
+    static long[][] multiply(long[][] a, long[][] b) {
+        int n = a.length;
+        long[][] result = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < n; k++) {
+                if (a[i][k] == 0) continue;
+                for (int j = 0; j < n; j++) {
+                    result[i][j] = Math.addExact(result[i][j], Math.multiplyExact(a[i][k], b[k][j]));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    static BigInteger[][] multiply(BigInteger[][] a, BigInteger[][] b) {
+        int n = a.length;
+        BigInteger[][] result = new BigInteger[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                BigInteger sum = BigInteger.ZERO;
+                for (int k = 0; k < n; k++) {
+                    if (a[i][k].signum() != 0 && b[k][j].signum() != 0) sum = sum.add(a[i][k].multiply(b[k][j]));
+                }
+                result[i][j] = sum;
+            }
+        }
+
+        return result;
+    }
+
+    static long[][] multiplyModulo(long[][] a, long[][] b, long modulus) {
+        int n = a.length;
+        long[][] result = new long[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < n; k++) {
+                if (a[i][k] == 0) continue;
+                for (int j = 0; j < n; j++) {
+                    result[i][j] = (result[i][j] + a[i][k] * b[k][j]) % modulus;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    // A fish spawns at most once every 7 days and each fish it spawns is another single fish, so one fish becomes
+    // at most 2^(days / 7 + 1) fish. Every entry of the matrix power, and every partial sum while squaring, stays
+    // under that bound times the starting population.
+    static boolean fitsInLong(long[] population, long days) {
+        long total;
+        try {
+            total = Arrays.stream(population).reduce(0, Math::addExact);
+        } catch (ArithmeticException e) {
+            return false;
+        }
 
-        for (int i = 0; i < 256; i++) {
-            simulate(population);
+        int populationBits = 64 - Long.numberOfLeadingZeros(Math.max(total, 1));
+        return days / 7 + 1 + populationBits < 63;
+    }
+
+    // Total population after the given number of days, by raising the transition matrix to that power with
+    // repeated squaring. Uses long arithmetic while the result provably fits and BigInteger past that.
+    static BigInteger totalAfter(long[] population, long days) {
+        if (fitsInLong(population, days)) {
+            long[][] result = new long[9][9];
+            for (int i = 0; i < 9; i++) result[i][i] = 1;
+            long[][] power = transitionMatrix();
+            for (long remaining = days; remaining > 0; remaining >>= 1) {
+                if ((remaining & 1) == 1) result = multiply(result, power);
+                if (remaining > 1) power = multiply(power, power);
+            }
+
+            long total = 0;
+            for (int i = 0; i < 9; i++) {
+                for (int j = 0; j < 9; j++) {
+                    total += result[i][j] * population[j];
+                }
+            }
+
+            return BigInteger.valueOf(total);
+        }
+
+        BigInteger[][] result = new BigInteger[9][9];
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 9; j++) result[i][j] = i == j ? BigInteger.ONE : BigInteger.ZERO;
+        }
+        BigInteger[][] power = Arrays.stream(transitionMatrix())
+                .map(row -> Arrays.stream(row).mapToObj(BigInteger::valueOf).toArray(BigInteger[]::new))
+                .toArray(BigInteger[][]::new);
+        for (long remaining = days; remaining > 0; remaining >>= 1) {
+            if ((remaining & 1) == 1) result = multiply(result, power);
+            if (remaining > 1) power = multiply(power, power);
+        }
+
+        BigInteger total = BigInteger.ZERO;
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 9; j++) {
+                total = total.add(result[i][j].multiply(BigInteger.valueOf(population[j])));
+            }
+        }
+
+        return total;
+    }
+
+    // The population has roughly days / 26 decimal digits, so exact totals stop being practical somewhere past a
+    // few million days. Past that, this gives the total modulo a number up to 2^31 in O(log days).
+    static long totalAfterModulo(long[] population, long days, long modulus) {
+        if (modulus <= 0 || modulus > (1L << 31)) throw new IllegalArgumentException("Modulus must be in (0, 2^31]: " + modulus);
+
+        long[][] result = new long[9][9];
+        for (int i = 0; i < 9; i++) result[i][i] = 1 % modulus;
+        long[][] power = multiplyModulo(transitionMatrix(), result, modulus);
+        for (long remaining = days; remaining > 0; remaining >>= 1) {
+            if ((remaining & 1) == 1) result = multiplyModulo(result, power, modulus);
+            if (remaining > 1) power = multiplyModulo(power, power, modulus);
+        }
+
+        long total = 0;
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 9; j++) {
+                total = (total + result[i][j] * (population[j] % modulus)) % modulus;
+            }
         }
 
-        long fishTotal = Arrays.stream(population).sum();
-        System.out.println("Answer: " + fishTotal);
+        return total;
+    }
+
+    record Query(long[] population, long days) {}
+
+    // Powers of the transition matrix for every power-of-two number of days up to some horizon. Column j of
+    // the k-th power is what one fish with timer j turns into after 2^k days, so a query only combines the
+    // powers for the set bits of its day count with matrix-vector dot products. Nothing is re-simulated.
+    static class GrowthTable {
+        final Lifecycle lifecycle;
+        private final List<long[][]> powers = new ArrayList<>();
+
+        // Throws ArithmeticException if growth over maxDays does not fit in a long.
+        GrowthTable(Lifecycle lifecycle, long maxDays) {
+            this.lifecycle = lifecycle;
+            powers.add(transitionMatrix(lifecycle));
+            while (maxDays >> powers.size() > 0) {
+                var last = powers.get(powers.size() - 1);
+                powers.add(multiply(last, last));
+            }
+        }
+
+        long total(long[] population, long days) {
+            if (days >> powers.size() > 0) throw new IllegalArgumentException("Table does not reach day " + days);
+            lifecycle.checkPopulation(population);
+
+            long[] current = population.clone();
+            for (int k = 0; days >> k > 0; k++) {
+                if ((days >> k & 1) == 0) continue;
+
+                var power = powers.get(k);
+                long[] next = new long[current.length];
+                for (int i = 0; i < next.length; i++) {
+                    for (int j = 0; j < current.length; j++) {
+                        next[i] = Math.addExact(next[i], Math.multiplyExact(power[i][j], current[j]));
+                    }
+                }
+                current = next;
+            }
+
+            return Arrays.stream(current).reduce(0, Math::addExact);
+        }
+
+        long[] totals(List<Query> queries) {
+            return queries.parallelStream()
+                    .mapToLong(q -> total(q.population, q.days))
+                    .toArray();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        long[] population = parseInput("input/day6.txt");
+        System.out.println("Answer: " + totalAfter(population, 256));
     }
 
 }
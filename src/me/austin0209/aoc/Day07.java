@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -22,6 +23,170 @@ public class Day07 {
                 .sum();
     }
 
+    record Alignment(int position, long cost) {}
+
+    // Fuel costs of aligning at every position from min to max, for both the linear and the triangular models.
+    record CostTable(int min, long[] linear, long[] triangular) {
+        Alignment bestLinear() {
+            return best(linear);
+        }
+
+        Alignment bestTriangular() {
+            return best(triangular);
+        }
+
+        private Alignment best(long[] costs) {
+            int best = 0;
+            for (int i = 1; i < costs.length; i++) {
+                if (costs[i] < costs[best]) best = i;
+            }
+
+            return new Alignment(min + best, costs[best]);
+        }
+    }
+
+    // Builds a histogram of the positions once, then sweeps left to right with running counts and sums of the crabs
+    // on the left. The linear cost at p is the sum of |x - p|, which only needs those running values. The triangular
+    // cost is the sum of d(d + 1) / 2 = (d^2 + d) / 2, where the sum of d^2 = (x - p)^2 expands into the overall
+    // count, first moment and second moment. O(n + range) in total.
+    static CostTable costTable(int[] positions) {
+        int min = Arrays.stream(positions).min().orElseThrow();
+        int max = Arrays.stream(positions).max().orElseThrow();
+
+        long[] histogram = new long[max - min + 1];
+        long count = positions.length;
+        long sum = 0;
+        long sumOfSquares = 0;
+        for (int position : positions) {
+            histogram[position - min]++;
+            sum += position;
+            sumOfSquares += (long) position * position;
+        }
+
+        long[] linear = new long[histogram.length];
+        long[] triangular = new long[histogram.length];
+        long countLeft = 0;
+        long sumLeft = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            long p = min + i;
+            linear[i] = (p * countLeft - sumLeft) + ((sum - sumLeft) - p * (count - countLeft));
+
+            long squaredDistances = sumOfSquares - 2 * p * sum + p * p * count;
+            triangular[i] = (squaredDistances + linear[i]) / 2;
+
+            // Crabs at p are zero distance away, so they only join the left side for the positions after it.
+            countLeft += histogram[i];
+            sumLeft += histogram[i] * p;
+        }
+
+        return new CostTable(min, linear, triangular);
+    }
+
+    // Both costs use exact arithmetic, so a total too large for a long throws instead of wrapping.
+    static long linearCost(int[] positions, long align) {
+        long total = 0;
+        for (int position : positions) total = Math.addExact(total, Math.abs(position - align));
+        return total;
+    }
+
+    static long triangularCost(int[] positions, long align) {
+        long total = 0;
+        for (int position : positions) {
+            long distance = Math.abs(position - align);
+            total = Math.addExact(total, distance * (distance + 1) / 2);
+        }
+        return total;
+    }
+
+    // The linear cost is minimised at the median.
+    static Alignment medianAlignment(int[] positions) {
+        int median = Util.select(positions.clone(), positions.length / 2);
+        return new Alignment(median, linearCost(positions, median));
+    }
+
+    // The triangular cost is (sum of d^2 + sum of d) / 2. The squared part is minimised at the mean, and the linear
+    // part can only pull the real minimum half a step away from it, so the best integer position is within one of
+    // the mean's floor or ceiling.
+    static Alignment meanAlignment(int[] positions) {
+        long sum = 0;
+        for (int position : positions) sum += position;
+        long floor = Math.floorDiv(sum, positions.length);
+
+        Alignment best = null;
+        for (long candidate = floor - 1; candidate <= floor + 2; candidate++) {
+            long cost = triangularCost(positions, candidate);
+            if (best == null || cost < best.cost) best = new Alignment((int) candidate, cost);
+        }
+
+        return best;
+    }
+
+    // Fuel one crab at the given position spends moving to align. The search below needs this to be convex in align.
+    @FunctionalInterface
+    interface FuelCost {
+        long cost(int position, long align);
+
+        FuelCost LINEAR = (position, align) -> Math.abs(position - align);
+        FuelCost TRIANGULAR = (position, align) -> {
+            long distance = Math.abs(position - align);
+            return distance * (distance + 1) / 2;
+        };
+        FuelCost QUADRATIC = (position, align) -> (position - align) * (position - align);
+
+        // Triangular, except each step costs at most maxStep once the crab is far enough away.
+        static FuelCost capped(long maxStep) {
+            return (position, align) -> {
+                long distance = Math.abs(position - align);
+                long rising = Math.min(distance, maxStep);
+                return rising * (rising + 1) / 2 + (distance - rising) * maxStep;
+            };
+        }
+    }
+
+    record Crabs(int[] positions, long[] weights) {
+        static Crabs unweighted(int[] positions) {
+            long[] weights = new long[positions.length];
+            Arrays.fill(weights, 1);
+            return new Crabs(positions, weights);
+        }
+
+        long totalCost(FuelCost fuelCost, long align) {
+            return IntStream.range(0, positions.length)
+                    .parallel()
+                    .mapToLong(i -> weights[i] * fuelCost.cost(positions[i], align))
+                    .sum();
+        }
+
+        // Ternary search over the integer positions between the outermost crabs: for a convex total, whichever third
+        // sits beyond the more expensive probe cannot hold the minimum. O(n log range) cost evaluations.
+        Alignment bestAlignment(FuelCost fuelCost) {
+            long low = Arrays.stream(positions).min().orElseThrow();
+            long high = Arrays.stream(positions).max().orElseThrow();
+            while (high - low > 2) {
+                long third = (high - low) / 3;
+                long left = low + third;
+                long right = high - third;
+                long leftCost = totalCost(fuelCost, left);
+                long rightCost = totalCost(fuelCost, right);
+
+                if (leftCost < rightCost) high = right - 1;
+                else if (leftCost > rightCost) low = left + 1;
+                else {
+                    low = left;
+                    high = right;
+                }
+            }
+
+            Alignment best = null;
+            for (long align = low; align <= high; align++) {
+                long cost = totalCost(fuelCost, align);
+                if (best == null || cost < best.cost) best = new Alignment((int) align, cost);
+            }
+
+            return best;
+        }
+    }
+
     static List<Integer> parseInput(String filename) throws IOException {
         var reader = new BufferedReader(new FileReader(filename));
         String[] line = reader.readLine().split(",");
@@ -31,23 +196,13 @@ public class Day07 {
     }
 
     public static void main(String[] args) throws IOException {
-        // Solve part 1
-        var positions = parseInput("input/day7.txt");
-        int min = positions.stream().min(Integer::compare).orElseThrow();
-        int max = positions.stream().max(Integer::compare).orElseThrow();
-
-        int answer = IntStream.rangeClosed(min, max)
-                .map((i) -> fuelCostPart1(positions, i))
-                .min().orElseThrow();
+        var positions = parseInput("input/day7.txt").stream()
+                .mapToInt(Integer::intValue)
+                .toArray();
+        var costs = costTable(positions);
 
-        System.out.println("Part 1 answer: " + answer);
-
-        // Solve part 2
-        int answer2 = IntStream.rangeClosed(min, max)
-                .map((i) -> fuelCostPart2(positions, i))
-                .min().orElseThrow();
-
-        System.out.println("Part 2 answer: " + answer2);
+        System.out.println("Part 1 answer: " + costs.bestLinear().cost());
+        System.out.println("Part 2 answer: " + costs.bestTriangular().cost());
     }
 
     @Test
@@ -58,4 +213,35 @@ public class Day07 {
         System.out.println("The answer is: " + answer);
         assert(answer == 206);
     }
+
+    @Test
+    void testCostTable() throws IOException {
+        var positions = parseInput("input/day7sample.txt");
+        var costs = costTable(positions.stream().mapToInt(Integer::intValue).toArray());
+
+        assert (costs.bestLinear().equals(new Alignment(2, 37)));
+        assert (costs.bestTriangular().equals(new Alignment(5, 168)));
+        assert (costs.triangular()[2 - costs.min()] == fuelCostPart2(positions, 2));
+    }
+
+    @Test
+    void testClosedFormAlignment() throws IOException {
+        var positions = parseInput("input/day7sample.txt").stream()
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        assert (medianAlignment(positions).equals(new Alignment(2, 37)));
+        assert (meanAlignment(positions).equals(new Alignment(5, 168)));
+    }
+
+    @Test
+    void testFuelCostSearch() throws IOException {
+        var crabs = Crabs.unweighted(parseInput("input/day7sample.txt").stream()
+                .mapToInt(Integer::intValue)
+                .toArray());
+
+        assert (crabs.bestAlignment(FuelCost.LINEAR).cost() == 37);
+        assert (crabs.bestAlignment(FuelCost.TRIANGULAR).equals(new Alignment(5, 168)));
+        assert (crabs.bestAlignment(FuelCost.capped(Long.MAX_VALUE)).cost() == 168);
+    }
 }
@@ -5,7 +5,15 @@ import org.junit.jupiter.api.Test;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class Day08 {
     record PatternsOutputPair(List<String> patterns, List<String> output) {
@@ -95,29 +103,235 @@ public class Day08 {
         return answer;
     }
 
-    public static void main(String[] args) throws FileNotFoundException {
-        // Solve part 1
-        var outputs = new BufferedReader(new FileReader("input/day8.txt"))
-                .lines()
-                .map(s -> s.split(" \\| ")[1].split(" "))
-                .flatMap(Arrays::stream)
+    // Patterns as 7-bit masks, bit 0 for segment 'a' through bit 6 for 'g'.
+    record MaskedLine(int[] patterns, int[] output) {
+        static MaskedLine of(PatternsOutputPair pair) {
+            return new MaskedLine(
+                    pair.patterns.stream().mapToInt(Day08::mask).toArray(),
+                    pair.output.stream().mapToInt(Day08::mask).toArray());
+        }
+    }
+
+    static int mask(String pattern) {
+        int mask = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            mask |= 1 << (pattern.charAt(i) - 'a');
+        }
+
+        return mask;
+    }
+
+    static List<MaskedLine> parseMaskedInput(String filename) throws FileNotFoundException {
+        return parseInput(filename).stream()
+                .map(MaskedLine::of)
                 .toList();
+    }
+
+    // Same deduction as decodeLine, but containment is a mask test and the digit of each pattern goes in a table
+    // indexed by its mask. The table is scratch space owned by the caller so decoding allocates nothing.
+    static int decodeMasks(int[] patterns, int[] output, byte[] digits) {
+        int one = 0;
+        int four = 0;
+        for (int pattern : patterns) {
+            int segments = Integer.bitCount(pattern);
+            if (segments == 2) one = pattern;
+            else if (segments == 4) four = pattern;
+        }
+
+        for (int pattern : patterns) {
+            digits[pattern] = (byte) switch (Integer.bitCount(pattern)) {
+                case 2 -> 1;
+                case 3 -> 7;
+                case 4 -> 4;
+                case 7 -> 8;
+                case 6 -> (pattern & four) == four ? 9 : (pattern & one) == one ? 0 : 6;
+                case 5 -> (pattern & one) == one ? 3 : Integer.bitCount(pattern & four) == 2 ? 2 : 5;
+                default -> throw new RuntimeException("Invalid pattern! " + Integer.toBinaryString(pattern));
+            };
+        }
+
+        int answer = 0;
+        for (int pattern : output) {
+            answer = answer * 10 + digits[pattern];
+        }
+
+        return answer;
+    }
+
+    static int decodeMasks(MaskedLine line, byte[] digits) {
+        return decodeMasks(line.patterns, line.output, digits);
+    }
+
+    // Every way of wiring the seven segments, keyed by the set of ten masks it scrambles the digits into. A display
+    // line is then decoded by one hash lookup on its patterns instead of deducing digits from one another.
+    static final class WiringTable {
+        private static final int[] DIGIT_MASKS = Stream.of(
+                "abcefg", "cf", "acdeg", "acdfg", "bcdf", "abdfg", "abdefg", "acf", "abcdefg", "abcdfg")
+                .mapToInt(Day08::mask)
+                .toArray();
+
+        // Open addressing over the pattern set's 128-bit signature; 5040 wirings in 8192 slots.
+        private static final int SLOT_BITS = 13;
+        private static final long[] keyLow = new long[1 << SLOT_BITS];
+        private static final long[] keyHigh = new long[1 << SLOT_BITS];
+        private static final short[] wiring = new short[1 << SLOT_BITS];
+        // digits[w * 128 + mask] is the digit that wiring w displays as mask.
+        private static final byte[] digits = new byte[5040 * 128];
+
+        static {
+            Arrays.fill(wiring, (short) -1);
+            int[] permutation = {0, 1, 2, 3, 4, 5, 6};
+            for (int w = 0; w < 5040; w++) {
+                long low = 0;
+                long high = 0;
+                for (int digit = 0; digit < 10; digit++) {
+                    int scrambled = 0;
+                    for (int segment = 0; segment < 7; segment++) {
+                        if ((DIGIT_MASKS[digit] >> segment & 1) == 1) scrambled |= 1 << permutation[segment];
+                    }
+
+                    digits[w * 128 + scrambled] = (byte) digit;
+                    if (scrambled < 64) low |= 1L << scrambled;
+                    else high |= 1L << scrambled;
+                }
+
+                int slot = slot(low, high);
+                while (wiring[slot] != -1) slot = (slot + 1) & (wiring.length - 1);
+                keyLow[slot] = low;
+                keyHigh[slot] = high;
+                wiring[slot] = (short) w;
+
+                nextPermutation(permutation);
+            }
+        }
+
+        private static int slot(long low, long high) {
+            long hash = (low * 0x9E3779B97F4A7C15L) ^ (high * 0xC2B2AE3D27D4EB4FL);
+            return (int) ((hash ^ (hash >>> 32)) * 0x9E3779B97F4A7C15L >>> (64 - SLOT_BITS));
+        }
+
+        // Steps to the next permutation in lexicographic order.
+        private static void nextPermutation(int[] permutation) {
+            int i = permutation.length - 2;
+            while (i >= 0 && permutation[i] >= permutation[i + 1]) i--;
+            if (i < 0) return;
+
+            int j = permutation.length - 1;
+            while (permutation[j] <= permutation[i]) j--;
+            int temp = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = temp;
+
+            for (int a = i + 1, b = permutation.length - 1; a < b; a++, b--) {
+                temp = permutation[a];
+                permutation[a] = permutation[b];
+                permutation[b] = temp;
+            }
+        }
 
-        var answerPart1 = outputs.stream()
-                .filter(s -> s.length() == 2 || s.length() == 3 || s.length() == 4 || s.length() == 7)
-                .count();
+        static int decode(int[] patterns, int[] output) {
+            long low = 0;
+            long high = 0;
+            for (int pattern : patterns) {
+                long bit = 1L << pattern;
+                low |= pattern < 64 ? bit : 0;
+                high |= pattern < 64 ? 0 : bit;
+            }
 
-        System.out.println(answerPart1);
+            int slot = slot(low, high);
+            while (keyLow[slot] != low || keyHigh[slot] != high) {
+                if (wiring[slot] == -1) throw new RuntimeException("No wiring produces these patterns!");
+                slot = (slot + 1) & (wiring.length - 1);
+            }
 
-        // Solve part 2
-        var input = parseInput("input/day8.txt");
+            int base = wiring[slot] * 128;
+            int answer = 0;
+            for (int pattern : output) {
+                answer = answer * 10 + digits[base + pattern];
+            }
+
+            return answer;
+        }
+    }
 
-        var answerPart2 = 0;
-        for (var pair : input) {
-            answerPart2 += decodeLine(pair);
+    record DisplayTotals(long easyDigits, long outputSum) {
+        DisplayTotals plus(DisplayTotals other) {
+            return new DisplayTotals(easyDigits + other.easyDigits, outputSum + other.outputSum);
         }
+    }
 
-        System.out.println(answerPart2);
+    // Solves both parts in one pass over the file. It is cut into chunks at newline boundaries, and each chunk is
+    // memory-mapped and scanned byte by byte on its own worker with its own totals, which are summed at the end.
+    static DisplayTotals solveMapped(String filename) throws IOException {
+        try (var channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            var boundaries = Util.lineBoundaries(channel);
+            return IntStream.range(0, boundaries.size() - 1)
+                    .parallel()
+                    .mapToObj(i -> {
+                        try {
+                            long start = boundaries.get(i);
+                            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, boundaries.get(i + 1) - start);
+                            return scanDisplays(buffer);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .reduce(new DisplayTotals(0, 0), DisplayTotals::plus);
+        }
+    }
+
+    // Reads whole lines of the form "<10 patterns> | <4 outputs>", turning each word into a mask as it goes.
+    static DisplayTotals scanDisplays(ByteBuffer buffer) {
+        int[] patterns = new int[10];
+        int[] output = new int[4];
+        long easyDigits = 0;
+        long outputSum = 0;
+
+        int word = 0;
+        int mask = 0;
+        boolean separated = false;
+        int limit = buffer.limit();
+        for (int i = 0; i <= limit; i++) {
+            // The end of the chunk finishes its last line as if it ended with a newline.
+            byte b = i < limit ? buffer.get(i) : (byte) '\n';
+            if (b >= 'a' && b <= 'g') {
+                mask |= 1 << (b - 'a');
+                continue;
+            }
+
+            if (mask != 0) {
+                if (word < 10) {
+                    patterns[word] = mask;
+                } else if (word < 14) {
+                    output[word - 10] = mask;
+                    int segments = Integer.bitCount(mask);
+                    if (segments == 2 || segments == 3 || segments == 4 || segments == 7) easyDigits++;
+                }
+                word++;
+                mask = 0;
+            }
+
+            if (b == '|') {
+                if (word != 10 || separated) throw new RuntimeException("Invalid display! Expected 10 patterns before '|'.");
+                separated = true;
+            } else if (b == '\n') {
+                // Blank lines are skipped; anything else has to be a complete display.
+                if (word != 0 || separated) {
+                    if (word != 14 || !separated) throw new RuntimeException("Invalid display! Expected 10 patterns and 4 outputs.");
+                    outputSum += WiringTable.decode(patterns, output);
+                }
+                word = 0;
+                separated = false;
+            }
+        }
+
+        return new DisplayTotals(easyDigits, outputSum);
+    }
+
+    public static void main(String[] args) throws IOException {
+        var totals = solveMapped("input/day8.txt");
+        System.out.println(totals.easyDigits);
+        System.out.println(totals.outputSum);
     }
 
     @Test
@@ -151,4 +365,41 @@ public class Day08 {
         System.out.println(answer);
         assert (answer == 5353);
     }
+
+    @Test
+    void testDecodeMasks() throws FileNotFoundException {
+        var line = parseMaskedInput("input/day8sample.txt").get(0);
+        assert (mask("ab") == 0b11 && mask("g") == 0b1000000);
+
+        var answer = decodeMasks(line, new byte[128]);
+        assert (answer == 5353);
+    }
+
+    @Test
+    void testWiringTable() throws FileNotFoundException {
+        var line = parseMaskedInput("input/day8sample.txt").get(0);
+        var answer = WiringTable.decode(line.patterns(), line.output());
+        assert (answer == 5353);
+    }
+
+    @Test
+    void testSolveMapped() throws IOException {
+        var totals = solveMapped("input/day8sample.txt");
+        assert (totals.equals(new DisplayTotals(0, 5353)));
+    }
+
+    @Test
+    void testScanDisplaysRejectsMalformedLine() {
+        var text = "acedgfb cdfbe gcdfa fbcad dab cefabd cdfgeb eafb cagedb ab | cdfeb fcadb cdfeb cdbaf\n\n"
+                + "acedgfb cdfbe gcdfa fbcad dab cefabd cdfgeb eafb cagedb ab | cdfeb fcadb\n";
+        try {
+            scanDisplays(ByteBuffer.wrap(text.getBytes()));
+            assert false;
+        } catch (RuntimeException e) {
+            // A line missing outputs is rejected rather than dropped from the sum.
+        }
+
+        var valid = scanDisplays(ByteBuffer.wrap(text.substring(0, text.lastIndexOf("acedgfb")).getBytes()));
+        assert (valid.equals(new DisplayTotals(0, 5353)));
+    }
 }
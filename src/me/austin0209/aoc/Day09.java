@@ -6,6 +6,7 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.stream.IntStream;
 
 record Point(int x, int y) {}
 
@@ -32,6 +33,14 @@ class HeightMap {
         return result;
     }
 
+    public static HeightMap fromData(int[] data, int columns) {
+        HeightMap result = new HeightMap();
+        result.data = data.clone();
+        result.columns = columns;
+        result.rows = data.length / columns;
+        return result;
+    }
+
     public int getRows() {
         return rows;
     }
@@ -98,6 +107,161 @@ class HeightMap {
                 getBasinSizeHelp(x, y - 1, visited) + 1;
     }
 
+    // Labels every basin in one row-major scan with a union-find over the cells, merging each non-9 cell with the
+    // cells above and to its left. A root holds its basin's size as a negative number, every other cell its parent.
+    public int[] getBasinSizes() {
+        int[] parent = new int[data.length];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < columns; x++) {
+                int index = x + y * columns;
+                if (data[index] == 9) continue;
+
+                parent[index] = -1;
+                if (y > 0 && data[index - columns] != 9) union(parent, index - columns, index);
+                if (x > 0 && data[index - 1] != 9) union(parent, index - 1, index);
+            }
+        }
+
+        int basins = 0;
+        for (int i = 0; i < parent.length; i++) {
+            if (data[i] != 9 && parent[i] < 0) basins++;
+        }
+
+        int[] sizes = new int[basins];
+        for (int i = 0, basin = 0; i < parent.length; i++) {
+            if (data[i] != 9 && parent[i] < 0) sizes[basin++] = -parent[i];
+        }
+
+        return sizes;
+    }
+
+    static int find(int[] parent, int index) {
+        while (parent[index] >= 0) {
+            int next = parent[index];
+            if (parent[next] >= 0) parent[index] = parent[next];
+            index = next;
+        }
+
+        return index;
+    }
+
+    static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA == rootB) return;
+
+        // Hang the smaller tree under the larger one; sizes are stored negated.
+        if (parent[rootA] > parent[rootB]) {
+            int temp = rootA;
+            rootA = rootB;
+            rootB = temp;
+        }
+        parent[rootA] += parent[rootB];
+        parent[rootB] = rootA;
+    }
+
+    // A band's basins numbered 0..n-1, with the basin of every cell in its first and last rows (-1 for a 9).
+    private record Band(long riskLevel, int[] sizes, int[] topLabels, int[] bottomLabels) {}
+
+    public record Analysis(long riskLevel, int[] basinSizes) {}
+
+    // Splits the rows into bands and labels each band's basins on its own fork-join worker, checking for low points in
+    // the same scan. Basins cut by a seam between bands are then joined with a union-find over the bands' basins.
+    public Analysis analyseParallel(int bandRows) {
+        int bandCount = (rows + bandRows - 1) / bandRows;
+        List<Band> bands = IntStream.range(0, bandCount)
+                .parallel()
+                .mapToObj(band -> labelBand(band * bandRows, Math.min(rows, (band + 1) * bandRows)))
+                .toList();
+
+        int[] offsets = new int[bandCount + 1];
+        for (int band = 0; band < bandCount; band++) {
+            offsets[band + 1] = offsets[band] + bands.get(band).sizes.length;
+        }
+
+        int[] parent = new int[offsets[bandCount]];
+        long riskLevel = 0;
+        for (int band = 0; band < bandCount; band++) {
+            var sizes = bands.get(band).sizes;
+            for (int basin = 0; basin < sizes.length; basin++) parent[offsets[band] + basin] = -sizes[basin];
+            riskLevel += bands.get(band).riskLevel;
+        }
+
+        for (int band = 1; band < bandCount; band++) {
+            var above = bands.get(band - 1).bottomLabels;
+            var below = bands.get(band).topLabels;
+            for (int x = 0; x < columns; x++) {
+                if (above[x] >= 0 && below[x] >= 0) {
+                    union(parent, offsets[band - 1] + above[x], offsets[band] + below[x]);
+                }
+            }
+        }
+
+        return new Analysis(riskLevel, Arrays.stream(parent).filter(p -> p < 0).map(p -> -p).toArray());
+    }
+
+    private Band labelBand(int firstRow, int endRow) {
+        int start = firstRow * columns;
+        int[] parent = new int[(endRow - firstRow) * columns];
+        long riskLevel = 0;
+
+        for (int y = firstRow; y < endRow; y++) {
+            for (int x = 0; x < columns; x++) {
+                int index = x + y * columns;
+                int height = data[index];
+
+                boolean lowPoint = (x == 0 || data[index - 1] > height) && (x == columns - 1 || data[index + 1] > height)
+                        && (y == 0 || data[index - columns] > height) && (y == rows - 1 || data[index + columns] > height);
+                if (lowPoint) riskLevel += height + 1;
+
+                if (height == 9) continue;
+                int local = index - start;
+                parent[local] = -1;
+                if (y > firstRow && data[index - columns] != 9) union(parent, local - columns, local);
+                if (x > 0 && data[index - 1] != 9) union(parent, local - 1, local);
+            }
+        }
+
+        // Number the roots so the seams can refer to them.
+        int[] basinOf = new int[parent.length];
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < parent.length; i++) {
+            if (data[start + i] != 9 && parent[i] < 0) {
+                basinOf[i] = sizes.size();
+                sizes.add(-parent[i]);
+            }
+        }
+
+        int[] topLabels = new int[columns];
+        int[] bottomLabels = new int[columns];
+        int lastRow = (endRow - firstRow - 1) * columns;
+        for (int x = 0; x < columns; x++) {
+            topLabels[x] = data[start + x] == 9 ? -1 : basinOf[find(parent, x)];
+            bottomLabels[x] = data[start + lastRow + x] == 9 ? -1 : basinOf[find(parent, lastRow + x)];
+        }
+
+        return new Band(riskLevel, sizes.stream().mapToInt(Integer::intValue).toArray(), topLabels, bottomLabels);
+    }
+
+    // Product of the three largest sizes, picked in one pass rather than by sorting.
+    static long largestThreeProduct(int[] sizes) {
+        long first = 0, second = 0, third = 0;
+        for (int size : sizes) {
+            if (size > first) {
+                third = second;
+                second = first;
+                first = size;
+            } else if (size > second) {
+                third = second;
+                second = size;
+            } else if (size > third) {
+                third = size;
+            }
+        }
+
+        return first * second * third;
+    }
+
     public int getBasinSize(int x, int y) {
         if (get(x, y).orElseThrow() == 9) return 0;
         Set<Point> visited = new HashSet<>();
@@ -105,6 +269,196 @@ class HeightMap {
     }
 }
 
+// A height map that can be edited a few cells at a time while the risk level, every basin's size and the product of
+// the three largest basins stay current. An edit only re-checks the low-point status of the changed cell and its
+// four neighbours. Basins are merged with a union-find when a 9 is lowered, and when a cell is raised to 9 only the
+// basin it belonged to is flooded again to find the pieces it split into.
+class LiveHeightMap {
+    private final int[] data;
+    private final int rows;
+    private final int columns;
+    private final boolean[] lowPoints;
+    // Union-find over non-9 cells: roots hold their basin's size negated, other cells their parent.
+    private final int[] parent;
+    private final TreeMap<Integer, Integer> basinSizeCounts = new TreeMap<>();
+    private long riskLevel;
+    private long largestThreeProduct;
+
+    // Scratch space for re-flooding, reused across edits.
+    private final int[] floodStamp;
+    private int floodEpoch;
+    private int[] queue = new int[64];
+
+    LiveHeightMap(HeightMap map) {
+        this.rows = map.getRows();
+        this.columns = map.getColumns();
+        this.data = new int[rows * columns];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < columns; x++) {
+                data[x + y * columns] = map.get(x, y).orElseThrow();
+            }
+        }
+
+        this.lowPoints = new boolean[data.length];
+        this.parent = new int[data.length];
+        this.floodStamp = new int[data.length];
+        for (int index = 0; index < data.length; index++) {
+            refreshLowPoint(index);
+            if (data[index] == 9) continue;
+
+            parent[index] = -1;
+            int x = index % columns;
+            if (index >= columns && data[index - columns] != 9) HeightMap.union(parent, index - columns, index);
+            if (x > 0 && data[index - 1] != 9) HeightMap.union(parent, index - 1, index);
+        }
+
+        for (int index = 0; index < data.length; index++) {
+            if (data[index] != 9 && parent[index] < 0) addBasin(-parent[index]);
+        }
+        refreshLargestThree();
+    }
+
+    long getRiskLevel() {
+        return riskLevel;
+    }
+
+    long getLargestThreeProduct() {
+        return largestThreeProduct;
+    }
+
+    boolean isLowPoint(int x, int y) {
+        return lowPoints[x + y * columns];
+    }
+
+    int getBasinSize(int x, int y) {
+        int index = x + y * columns;
+        return data[index] == 9 ? 0 : -parent[HeightMap.find(parent, index)];
+    }
+
+    void set(int x, int y, int height) {
+        if (x < 0 || x >= columns || y < 0 || y >= rows) throw new IndexOutOfBoundsException("No cell at " + x + ", " + y);
+        if (height < 0 || height > 9) throw new IllegalArgumentException("Height must be 0-9: " + height);
+
+        int index = x + y * columns;
+        int old = data[index];
+        if (lowPoints[index]) {
+            riskLevel -= old + 1;
+            lowPoints[index] = false;
+        }
+        data[index] = height;
+
+        refreshLowPoint(index);
+        if (x > 0) refreshLowPoint(index - 1);
+        if (x < columns - 1) refreshLowPoint(index + 1);
+        if (y > 0) refreshLowPoint(index - columns);
+        if (y < rows - 1) refreshLowPoint(index + columns);
+
+        if (old == 9 && height != 9) joinBasins(index);
+        else if (old != 9 && height == 9) splitBasin(index);
+        else return;
+
+        refreshLargestThree();
+    }
+
+    private void refreshLowPoint(int index) {
+        int height = data[index];
+        int x = index % columns;
+        boolean low = (x == 0 || data[index - 1] > height) && (x == columns - 1 || data[index + 1] > height)
+                && (index < columns || data[index - columns] > height)
+                && (index >= data.length - columns || data[index + columns] > height);
+
+        if (lowPoints[index]) riskLevel -= height + 1;
+        lowPoints[index] = low;
+        if (low) riskLevel += height + 1;
+    }
+
+    // The cell is no longer a wall: it becomes a basin of its own, then merges with every neighbouring basin.
+    private void joinBasins(int index) {
+        parent[index] = -1;
+        addBasin(1);
+
+        int x = index % columns;
+        if (x > 0) joinWith(index, index - 1);
+        if (x < columns - 1) joinWith(index, index + 1);
+        if (index >= columns) joinWith(index, index - columns);
+        if (index < data.length - columns) joinWith(index, index + columns);
+    }
+
+    private void joinWith(int index, int neighbor) {
+        if (data[neighbor] == 9) return;
+
+        int a = HeightMap.find(parent, index);
+        int b = HeightMap.find(parent, neighbor);
+        if (a == b) return;
+
+        removeBasin(-parent[a]);
+        removeBasin(-parent[b]);
+        HeightMap.union(parent, a, b);
+        addBasin(-parent[HeightMap.find(parent, a)]);
+    }
+
+    // The cell is now a wall, so its old basin may fall apart. Each neighbour that is not yet part of a re-flooded
+    // piece starts a flood over the non-9 cells it can still reach, which becomes a basin of its own.
+    private void splitBasin(int index) {
+        removeBasin(-parent[HeightMap.find(parent, index)]);
+        floodEpoch++;
+
+        int x = index % columns;
+        if (x > 0) flood(index - 1);
+        if (x < columns - 1) flood(index + 1);
+        if (index >= columns) flood(index - columns);
+        if (index < data.length - columns) flood(index + columns);
+    }
+
+    private void flood(int start) {
+        if (data[start] == 9 || floodStamp[start] == floodEpoch) return;
+
+        int size = 0;
+        queue[size++] = start;
+        floodStamp[start] = floodEpoch;
+        for (int head = 0; head < size; head++) {
+            int cell = queue[head];
+            int x = cell % columns;
+            int[] neighbors = {
+                    x > 0 ? cell - 1 : -1,
+                    x < columns - 1 ? cell + 1 : -1,
+                    cell >= columns ? cell - columns : -1,
+                    cell < data.length - columns ? cell + columns : -1
+            };
+            for (int neighbor : neighbors) {
+                if (neighbor < 0 || data[neighbor] == 9 || floodStamp[neighbor] == floodEpoch) continue;
+
+                floodStamp[neighbor] = floodEpoch;
+                if (size == queue.length) queue = Arrays.copyOf(queue, size * 2);
+                queue[size++] = neighbor;
+            }
+        }
+
+        parent[start] = -size;
+        for (int i = 1; i < size; i++) parent[queue[i]] = start;
+        addBasin(size);
+    }
+
+    private void addBasin(int size) {
+        basinSizeCounts.merge(size, 1, Integer::sum);
+    }
+
+    private void removeBasin(int size) {
+        basinSizeCounts.computeIfPresent(size, (k, count) -> count == 1 ? null : count - 1);
+    }
+
+    private void refreshLargestThree() {
+        long product = 1;
+        int taken = 0;
+        for (var entry : basinSizeCounts.descendingMap().entrySet()) {
+            for (int i = 0; i < entry.getValue() && taken < 3; i++, taken++) product *= entry.getKey();
+            if (taken == 3) break;
+        }
+
+        largestThreeProduct = taken == 3 ? product : 0;
+    }
+}
+
 public class Day09 {
     public static void main(String[] args) throws IOException {
         var map = HeightMap.fromInput("input/day9.txt");
@@ -123,13 +477,9 @@ public class Day09 {
         System.out.println("Part 1 answer: " + riskLevel);
 
         // Solve part 2
-        var part2Answer = map.getLowPoints().stream()
-                .map(p -> map.getBasinSize(p.x(), p.y()))
-                .sorted(Comparator.reverseOrder())
-                .limit(3)
-                .reduce((a, b) -> a * b);
+        var part2Answer = HeightMap.largestThreeProduct(map.getBasinSizes());
 
-        System.out.println("Part 2 answer: " + part2Answer.orElseThrow());
+        System.out.println("Part 2 answer: " + part2Answer);
     }
 
     @Test
@@ -152,5 +502,55 @@ public class Day09 {
         System.out.println(size);
         assert(size == 9);
     }
-}
 
+    @Test
+    void testBasinSizes() throws IOException {
+        var map = HeightMap.fromInput("input/day9sample.txt");
+
+        var sizes = map.getBasinSizes();
+        Arrays.sort(sizes);
+        assert (Arrays.equals(sizes, new int[] {3, 9, 9, 14}));
+        assert (HeightMap.largestThreeProduct(sizes) == 1134);
+    }
+
+    @Test
+    void testAnalyseParallel() throws IOException {
+        var map = HeightMap.fromInput("input/day9sample.txt");
+
+        for (int bandRows = 1; bandRows <= map.getRows(); bandRows++) {
+            var analysis = map.analyseParallel(bandRows);
+            assert (analysis.riskLevel() == 15);
+            assert (HeightMap.largestThreeProduct(analysis.basinSizes()) == 1134);
+        }
+    }
+
+    @Test
+    void testLiveHeightMap() throws IOException {
+        var map = HeightMap.fromInput("input/day9sample.txt");
+        var live = new LiveHeightMap(map);
+        assert (live.getRiskLevel() == 15);
+        assert (live.getLargestThreeProduct() == 1134);
+
+        // Wall off the middle basin's top-left corner, then open a gap that joins the two left basins.
+        live.set(2, 1, 9);
+        live.set(1, 2, 9);
+        live.set(2, 0, 5);
+
+        int[] edited = new int[map.getRows() * map.getColumns()];
+        for (int y = 0; y < map.getRows(); y++) {
+            for (int x = 0; x < map.getColumns(); x++) {
+                edited[x + y * map.getColumns()] = map.get(x, y).orElseThrow();
+            }
+        }
+        edited[2 + map.getColumns()] = 9;
+        edited[1 + 2 * map.getColumns()] = 9;
+        edited[2] = 5;
+        var fresh = HeightMap.fromData(edited, map.getColumns());
+
+        long risk = fresh.getLowPoints().stream()
+                .mapToLong(p -> fresh.get(p.x(), p.y()).orElseThrow() + 1)
+                .sum();
+        assert (live.getRiskLevel() == risk);
+        assert (live.getLargestThreeProduct() == HeightMap.largestThreeProduct(fresh.getBasinSizes()));
+    }
+}
@@ -3,7 +3,15 @@ package me.austin0209.aoc;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class Day10 {
@@ -141,6 +149,248 @@ public class Day10 {
         System.out.println("Part 2 answer: " + scores.get(scores.size() / 2));
     }
 
+    record BracketPair(char opener, char closer, long syntaxScore, long completionScore) {}
+
+    // A set of up to 256 delimiter pairs compiled into dense tables indexed by character. symbols[c] is p + 1 if c
+    // opens pair p, -(p + 1) if it closes pair p, and 0 if it is not a delimiter at all.
+    static final class BracketGrammar {
+        static final BracketGrammar DEFAULT = new BracketGrammar(List.of(
+                new BracketPair('(', ')', 3, 1),
+                new BracketPair('[', ']', 57, 2),
+                new BracketPair('{', '}', 1197, 3),
+                new BracketPair('<', '>', 25137, 4)), 5);
+
+        final short[] symbols;
+        final long[] syntaxScores;
+        final long[] completionScores;
+        final long completionBase;
+
+        BracketGrammar(List<BracketPair> pairs, long completionBase) {
+            if (pairs.size() > 256) throw new IllegalArgumentException("At most 256 delimiter pairs: " + pairs.size());
+
+            int maxSymbol = pairs.stream()
+                    .mapToInt(p -> Math.max(p.opener, p.closer))
+                    .max().orElse(0);
+            this.symbols = new short[maxSymbol + 1];
+            this.syntaxScores = new long[pairs.size()];
+            this.completionScores = new long[pairs.size()];
+            this.completionBase = completionBase;
+
+            for (int pair = 0; pair < pairs.size(); pair++) {
+                var p = pairs.get(pair);
+                if (p.opener == p.closer || symbols[p.opener] != 0 || symbols[p.closer] != 0)
+                    throw new IllegalArgumentException("Delimiter used twice: " + p);
+
+                symbols[p.opener] = (short) (pair + 1);
+                symbols[p.closer] = (short) -(pair + 1);
+                syntaxScores[pair] = p.syntaxScore;
+                completionScores[pair] = p.completionScore;
+            }
+        }
+    }
+
+    // Checks one line at a time against a single reusable stack of open pairs, with every per-character decision
+    // read from the grammar's tables. A line costs one pass and allocates nothing.
+    static final class BracketScanner {
+        private final BracketGrammar grammar;
+        // Indices of the open pairs, which fit in a byte since a grammar has at most 256 pairs.
+        private byte[] stack = new byte[128];
+        private boolean corrupted;
+        private long score;
+
+        BracketScanner(BracketGrammar grammar) {
+            this.grammar = grammar;
+        }
+
+        BracketScanner() {
+            this(BracketGrammar.DEFAULT);
+        }
+
+        // After a scan: whether the line was corrupted, and its syntax error score if so, else its completion score.
+        boolean isCorrupted() {
+            return corrupted;
+        }
+
+        long getScore() {
+            return score;
+        }
+
+        void scan(CharSequence line) {
+            short[] symbols = grammar.symbols;
+            int depth = 0;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                int symbol = c < symbols.length ? symbols[c] : 0;
+                if (symbol > 0) {
+                    if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+                    stack[depth++] = (byte) (symbol - 1);
+                } else if (symbol == 0) {
+                    throw new RuntimeException("Invalid character! " + c);
+                } else if (depth == 0 || (stack[--depth] & 0xFF) != -symbol - 1) {
+                    corrupted = true;
+                    score = grammar.syntaxScores[-symbol - 1];
+                    return;
+                }
+            }
+
+            long completion = 0;
+            while (depth > 0) {
+                completion = completion * grammar.completionBase + grammar.completionScores[stack[--depth] & 0xFF];
+            }
+
+            corrupted = false;
+            score = completion;
+        }
+    }
+
+    // A line of a mapped file seen as characters, repointed at each line in turn instead of copied.
+    private static final class ByteLine implements CharSequence {
+        ByteBuffer buffer;
+        int start;
+        int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().subSequence(from, to);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            buffer.get(start, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    record SyntaxReport(long syntaxScore, long middleCompletionScore) {}
+
+    private record ChunkScores(long syntaxScore, long[] completionScores) {}
+
+    // Scores every line once for both parts. The file is cut into chunks at newline boundaries, each chunk is mapped
+    // and scanned on its own worker, and the completion scores are gathered into one primitive array whose middle
+    // value is found by quickselect instead of a full sort.
+    static SyntaxReport scoreMapped(String filename) throws IOException {
+        try (var channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            var boundaries = Util.lineBoundaries(channel);
+
+            var chunks = IntStream.range(0, boundaries.size() - 1)
+                    .parallel()
+                    .mapToObj(i -> {
+                        try {
+                            long start = boundaries.get(i);
+                            return scoreChunk(channel.map(FileChannel.MapMode.READ_ONLY, start, boundaries.get(i + 1) - start));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .toList();
+
+            long syntaxScore = chunks.stream().mapToLong(ChunkScores::syntaxScore).sum();
+            long[] completionScores = chunks.stream()
+                    .flatMapToLong(c -> Arrays.stream(c.completionScores))
+                    .toArray();
+            if (completionScores.length == 0) throw new RuntimeException("No incomplete lines!");
+
+            return new SyntaxReport(syntaxScore, Util.select(completionScores, completionScores.length / 2));
+        }
+    }
+
+    private static ChunkScores scoreChunk(ByteBuffer buffer) {
+        var scanner = new BracketScanner();
+        var line = new ByteLine();
+        line.buffer = buffer;
+
+        long syntaxScore = 0;
+        long[] completionScores = new long[64];
+        int completed = 0;
+
+        int limit = buffer.limit();
+        int start = 0;
+        for (int i = 0; i <= limit; i++) {
+            if (i < limit && buffer.get(i) != '\n') continue;
+
+            int end = i > start && buffer.get(i - 1) == '\r' ? i - 1 : i;
+            if (end > start) {
+                line.start = start;
+                line.length = end - start;
+                scanner.scan(line);
+
+                if (scanner.isCorrupted()) {
+                    syntaxScore += scanner.getScore();
+                } else {
+                    if (completed == completionScores.length) completionScores = Arrays.copyOf(completionScores, completed * 2);
+                    completionScores[completed++] = scanner.getScore();
+                }
+            }
+            start = i + 1;
+        }
+
+        return new ChunkScores(syntaxScore, Arrays.copyOf(completionScores, completed));
+    }
+
+    // Scores lines one at a time as they arrive, for input that is not a finished file. Both answers are available
+    // after every line, with the middle completion score kept by a RunningMedian instead of a sort.
+    static final class StreamingScorer {
+        private final BracketScanner scanner = new BracketScanner();
+        private final RunningMedian completionScores = new RunningMedian();
+        private long syntaxScore;
+
+        void accept(CharSequence line) {
+            if (line.isEmpty()) return;
+
+            scanner.scan(line);
+            if (scanner.isCorrupted()) syntaxScore += scanner.getScore();
+            else completionScores.add(scanner.getScore());
+        }
+
+        SyntaxReport report() {
+            if (completionScores.size() == 0) throw new RuntimeException("No incomplete lines!");
+            return new SyntaxReport(syntaxScore, completionScores.median());
+        }
+    }
+
+    static SyntaxReport scoreStream(BufferedReader reader) {
+        var scorer = new StreamingScorer();
+        reader.lines().forEach(scorer::accept);
+        return scorer.report();
+    }
+
+    // Middle completion score of a stream of lines, available after every line. The lower half sits in a max-heap
+    // and the upper half in a min-heap, with the upper half holding the extra score when the count is odd. For an even
+    // count that makes the median the upper middle score, the same one scoreMapped picks.
+    static final class RunningMedian {
+        private final PriorityQueue<Long> lower = new PriorityQueue<>(Comparator.reverseOrder());
+        private final PriorityQueue<Long> upper = new PriorityQueue<>();
+
+        void add(long score) {
+            if (upper.isEmpty() || score >= upper.peek()) upper.add(score);
+            else lower.add(score);
+
+            if (upper.size() > lower.size() + 1) lower.add(upper.poll());
+            else if (lower.size() > upper.size()) upper.add(lower.poll());
+        }
+
+        int size() {
+            return lower.size() + upper.size();
+        }
+
+        // The upper middle score when the count is even.
+        long median() {
+            if (upper.isEmpty()) throw new NoSuchElementException("No scores yet");
+            return upper.peek();
+        }
+    }
+
     static Day10 fromInput(String filename) throws FileNotFoundException {
         var result = new Day10();
 
@@ -150,11 +400,9 @@ public class Day10 {
         return result;
     }
 
-    public static void main(String[] args) throws FileNotFoundException {
-        var part1 = Day10.fromInput("input/day10.txt");
-        part1.solvePart1();
-
-        var part2 = Day10.fromInput("input/day10.txt");
-        part2.solvePart2();
+    public static void main(String[] args) throws IOException {
+        var report = scoreMapped("input/day10.txt");
+        System.out.println("Part 1 answer: " + report.syntaxScore);
+        System.out.println("Part 2 answer: " + report.middleCompletionScore);
     }
 }
@@ -4,6 +4,11 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 import java.util.stream.Collectors;
 
 public class Day11 {
@@ -100,6 +105,350 @@ public class Day11 {
         System.out.println(stepCount);
     }
 
+    // The grid as bytes with a one-cell border around it. Border cells hold 10, the "already flashed" value, so
+    // flashes next to the edge need no bounds checks and the border never flashes or gets reset. Cells that reach
+    // 10 during a step go on a worklist, and each is flashed exactly once from there.
+    static final class OctopusGrid {
+        final int rows;
+        final int cols;
+        final int stride;
+        final byte[] energy;
+        private final int[] flashed;
+        private final int[] neighborOffsets;
+
+        OctopusGrid(int rows, int cols, int[] levels) {
+            this.rows = rows;
+            this.cols = cols;
+            this.stride = cols + 2;
+            this.energy = new byte[stride * (rows + 2)];
+            this.flashed = new int[rows * cols];
+            this.neighborOffsets = new int[] {-stride - 1, -stride, -stride + 1, -1, 1, stride - 1, stride, stride + 1};
+
+            Arrays.fill(energy, (byte) 10);
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < cols; x++) {
+                    energy[index(x, y)] = (byte) levels[x + y * cols];
+                }
+            }
+        }
+
+        private OctopusGrid(OctopusGrid other) {
+            this.rows = other.rows;
+            this.cols = other.cols;
+            this.stride = other.stride;
+            this.energy = other.energy.clone();
+            this.flashed = new int[rows * cols];
+            this.neighborOffsets = other.neighborOffsets;
+        }
+
+        OctopusGrid copy() {
+            return new OctopusGrid(this);
+        }
+
+        static OctopusGrid of(Day11 day) {
+            return new OctopusGrid(day.rows, day.cols, day.data.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        int index(int x, int y) {
+            return (x + 1) + (y + 1) * stride;
+        }
+
+        // Advances one step and returns how many octopuses flashed.
+        int step() {
+            int count = 0;
+            for (int y = 0; y < rows; y++) {
+                for (int i = index(0, y), end = i + cols; i < end; i++) {
+                    if (++energy[i] == 10) flashed[count++] = i;
+                }
+            }
+
+            for (int head = 0; head < count; head++) {
+                int cell = flashed[head];
+                for (int offset : neighborOffsets) {
+                    int neighbor = cell + offset;
+                    if (energy[neighbor] < 10 && ++energy[neighbor] == 10) flashed[count++] = neighbor;
+                }
+            }
+
+            for (int i = 0; i < count; i++) {
+                energy[flashed[i]] = 0;
+            }
+
+            return count;
+        }
+
+        long flashesAfter(int steps) {
+            long total = 0;
+            for (int i = 0; i < steps; i++) total += step();
+            return total;
+        }
+
+        // Steps until every octopus flashes at once, returning how many steps that took from here.
+        long stepsUntilSynchronised() {
+            long steps = 1;
+            while (step() != rows * cols) steps++;
+            return steps;
+        }
+    }
+
+    // Runs an OctopusGrid's steps in parallel over square tiles. Each tile keeps its own worklist and only ever
+    // writes its own cells. A flash on the tile's edge queues the increments meant for a neighbouring tile in the
+    // outbox for that direction instead, and those are delivered in rounds, with every tile reading only the outboxes
+    // that face it and flashing what it received, until no tile has work left. Flashes do not depend on the order
+    // increments arrive in, so the result is exactly the sequential one.
+    static final class ParallelOctopusGrid {
+        // Bits in edges telling which sides of its tile a cell lies on.
+        private static final int LEFT = 1, RIGHT = 2, TOP = 4, BOTTOM = 8;
+        // Direction of each of OctopusGrid's neighbour offsets.
+        private static final int[] OFFSET_X = {-1, 0, 1, -1, 1, -1, 0, 1};
+        private static final int[] OFFSET_Y = {-1, -1, -1, 0, 0, 1, 1, 1};
+
+        private final class Tile {
+            final int left, top, right, bottom;
+            final int[] worklist;
+            int head;
+            int count;
+            // Indexed by direction, (dy + 1) * 3 + (dx + 1), so the opposite of direction d is 8 - d.
+            final Tile[] neighbours = new Tile[9];
+            final int[][] outboxes = new int[9][];
+            final int[] outboxSizes = new int[9];
+
+            Tile(int left, int top, int right, int bottom) {
+                this.left = left;
+                this.top = top;
+                this.right = right;
+                this.bottom = bottom;
+                this.worklist = new int[(right - left) * (bottom - top)];
+                for (int d = 0; d < 9; d++) outboxes[d] = new int[16];
+            }
+
+            void increment(int cell) {
+                if (grid.energy[cell] < 10 && ++grid.energy[cell] == 10) worklist[count++] = cell;
+            }
+
+            void flashAll() {
+                Arrays.fill(outboxSizes, 0);
+                for (; head < count; head++) {
+                    int cell = worklist[head];
+                    int sides = edges[cell];
+                    if (sides == 0) {
+                        // Inside the tile, so every neighbour is ours (the grid's padded border takes care of itself).
+                        for (int offset : grid.neighborOffsets) increment(cell + offset);
+                        continue;
+                    }
+
+                    for (int k = 0; k < 8; k++) {
+                        int dx = OFFSET_X[k] < 0 && (sides & LEFT) != 0 ? -1 : OFFSET_X[k] > 0 && (sides & RIGHT) != 0 ? 1 : 0;
+                        int dy = OFFSET_Y[k] < 0 && (sides & TOP) != 0 ? -1 : OFFSET_Y[k] > 0 && (sides & BOTTOM) != 0 ? 1 : 0;
+                        int neighbor = cell + grid.neighborOffsets[k];
+                        if (dx == 0 && dy == 0) {
+                            increment(neighbor);
+                            continue;
+                        }
+
+                        // No tile that way means the neighbour is the padded border.
+                        int d = (dy + 1) * 3 + (dx + 1);
+                        if (neighbours[d] == null) continue;
+                        if (outboxSizes[d] == outboxes[d].length) outboxes[d] = Arrays.copyOf(outboxes[d], outboxSizes[d] * 2);
+                        outboxes[d][outboxSizes[d]++] = neighbor;
+                    }
+                }
+            }
+
+            void receive() {
+                for (int d = 0; d < 9; d++) {
+                    var source = neighbours[d];
+                    if (source == null) continue;
+
+                    int[] inbox = source.outboxes[8 - d];
+                    for (int i = 0, n = source.outboxSizes[8 - d]; i < n; i++) increment(inbox[i]);
+                }
+            }
+        }
+
+        final OctopusGrid grid;
+        final int tileSize;
+        // Which sides of its tile each cell of the padded grid lies on, 0 for the border and tile interiors.
+        private final byte[] edges;
+        private final List<Tile> tiles = new ArrayList<>();
+
+        ParallelOctopusGrid(OctopusGrid grid, int tileSize) {
+            this.grid = grid;
+            this.tileSize = tileSize;
+            this.edges = new byte[grid.energy.length];
+
+            int tileColumns = (grid.cols + tileSize - 1) / tileSize;
+            int tileRows = (grid.rows + tileSize - 1) / tileSize;
+            for (int top = 0; top < grid.rows; top += tileSize) {
+                for (int left = 0; left < grid.cols; left += tileSize) {
+                    var tile = new Tile(left, top, Math.min(grid.cols, left + tileSize), Math.min(grid.rows, top + tileSize));
+                    tiles.add(tile);
+                    for (int y = tile.top; y < tile.bottom; y++) {
+                        for (int x = tile.left; x < tile.right; x++) {
+                            int sides = (x == tile.left ? LEFT : 0) | (x == tile.right - 1 ? RIGHT : 0)
+                                    | (y == tile.top ? TOP : 0) | (y == tile.bottom - 1 ? BOTTOM : 0);
+                            edges[grid.index(x, y)] = (byte) sides;
+                        }
+                    }
+                }
+            }
+
+            for (int t = 0; t < tiles.size(); t++) {
+                int column = t % tileColumns;
+                int row = t / tileColumns;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int c = column + dx;
+                        int r = row + dy;
+                        if ((dx == 0 && dy == 0) || c < 0 || c >= tileColumns || r < 0 || r >= tileRows) continue;
+                        tiles.get(t).neighbours[(dy + 1) * 3 + (dx + 1)] = tiles.get(c + r * tileColumns);
+                    }
+                }
+            }
+        }
+
+        int step() {
+            IntStream.range(0, tiles.size()).parallel().forEach(t -> {
+                var tile = tiles.get(t);
+                tile.head = 0;
+                tile.count = 0;
+                for (int y = tile.top; y < tile.bottom; y++) {
+                    for (int i = grid.index(tile.left, y), end = i + tile.right - tile.left; i < end; i++) {
+                        tile.increment(i);
+                    }
+                }
+            });
+
+            boolean pending = true;
+            while (pending) {
+                IntStream.range(0, tiles.size()).parallel().forEach(t -> tiles.get(t).flashAll());
+
+                IntStream.range(0, tiles.size()).parallel().forEach(t -> tiles.get(t).receive());
+
+                pending = tiles.stream().anyMatch(tile -> tile.head < tile.count);
+            }
+
+            return IntStream.range(0, tiles.size())
+                    .parallel()
+                    .map(t -> {
+                        var tile = tiles.get(t);
+                        for (int i = 0; i < tile.count; i++) grid.energy[tile.worklist[i]] = 0;
+                        return tile.count;
+                    })
+                    .sum();
+        }
+
+        long flashesAfter(int steps) {
+            long total = 0;
+            for (int i = 0; i < steps; i++) total += step();
+            return total;
+        }
+
+        long stepsUntilSynchronised() {
+            long steps = 1;
+            while (step() != grid.rows * grid.cols) steps++;
+            return steps;
+        }
+    }
+
+    // Total flashes over some number of steps, and the first step on which every octopus flashed. That step is NEVER
+    // if the grid settled into a cycle without synchronising, and UNKNOWN if neither happened within the steps run.
+    record FlashReport(long flashes, long firstSynchronisedStep) {
+        static final long NEVER = -1;
+        static final long UNKNOWN = -2;
+    }
+
+    // Simulates a copy of the grid, leaving the caller's untouched, until the copy repeats a state it was in before,
+    // then jumps ahead arithmetically. Stops after steps if no cycle turns up by then. States are compared by
+    // Zobrist hash, a XOR of one pseudo-random key per (cell, level), with the keys derived by a mixing function
+    // rather than stored. A hash match against step e at step s only proposes the period s - e: the grid at s is
+    // copied, and the cycle is accepted once the grid is back to exactly that copy s - e steps later, so a collision
+    // can never cause a bad jump. Only the latest step is kept per hash, so after a failed proposal the next repeat
+    // of a real cycle still proposes a period.
+    static FlashReport simulateWithCycles(OctopusGrid start, long steps) {
+        return simulateWithCycles(start, steps, false);
+    }
+
+    // The first step on which every octopus flashes, searching at most budget steps. Gives FlashReport.NEVER or
+    // FlashReport.UNKNOWN the same way simulateWithCycles does.
+    static long firstSynchronisedStep(OctopusGrid start, long budget) {
+        return simulateWithCycles(start, budget, true).firstSynchronisedStep;
+    }
+
+    private static FlashReport simulateWithCycles(OctopusGrid start, long steps, boolean untilSynchronised) {
+        var grid = start.copy();
+        Map<Long, Integer> seen = new HashMap<>();
+        seen.put(stateHash(grid), 0);
+        // flashTotals[t] is the number of flashes over the first t steps.
+        long[] flashTotals = new long[64];
+        long firstSynchronised = FlashReport.UNKNOWN;
+
+        OctopusGrid proposed = null;
+        int proposedStep = 0;
+        int proposedPeriod = 0;
+
+        int step = 0;
+        int cycleStart = -1;
+        while (step < steps) {
+            int flashes = grid.step();
+            step++;
+            if (step == flashTotals.length) flashTotals = Arrays.copyOf(flashTotals, step * 2);
+            flashTotals[step] = flashTotals[step - 1] + flashes;
+            if (firstSynchronised == FlashReport.UNKNOWN && flashes == grid.rows * grid.cols) {
+                firstSynchronised = step;
+                if (untilSynchronised) break;
+            }
+
+            if (proposed != null && step == proposedStep + proposedPeriod) {
+                if (Arrays.equals(proposed.energy, grid.energy)) {
+                    cycleStart = proposedStep;
+                    break;
+                }
+                proposed = null;
+            }
+
+            Integer earlier = seen.put(stateHash(grid), step);
+            if (earlier != null && proposed == null) {
+                proposed = grid.copy();
+                proposedStep = step;
+                proposedPeriod = step - earlier;
+            }
+        }
+
+        if (cycleStart == -1) return new FlashReport(flashTotals[step], firstSynchronised);
+
+        // Steps cycleStart + 1 .. step repeat forever, and all of them have been seen, so a synchronised step
+        // that has not turned up yet never will.
+        if (firstSynchronised == FlashReport.UNKNOWN) firstSynchronised = FlashReport.NEVER;
+
+        int cycleLength = step - cycleStart;
+        long cycleFlashes = flashTotals[step] - flashTotals[cycleStart];
+        long remaining = steps - cycleStart;
+        long total = flashTotals[cycleStart] + (remaining / cycleLength) * cycleFlashes
+                + (flashTotals[cycleStart + (int) (remaining % cycleLength)] - flashTotals[cycleStart]);
+
+        return new FlashReport(total, firstSynchronised);
+    }
+
+    private static long stateHash(OctopusGrid grid) {
+        long h = 0;
+        long key = 0;
+        for (int y = 0; y < grid.rows; y++) {
+            for (int i = grid.index(0, y), end = i + grid.cols; i < end; i++, key += 10) {
+                h ^= zobristKey(key + grid.energy[i]);
+            }
+        }
+        return h;
+    }
+
+    // SplitMix64's finaliser, which spreads consecutive inputs over unrelated 64-bit keys.
+    private static long zobristKey(long value) {
+        long z = value * 0x9e3779b97f4a7c15L + 2021;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -115,10 +464,10 @@ public class Day11 {
     }
 
     public static void main(String[] args) throws FileNotFoundException {
-        Day11 part1 = Day11.fromInput("input/day11.txt");
-        part1.solvePart1(100);
+        var part1 = OctopusGrid.of(Day11.fromInput("input/day11.txt"));
+        System.out.println(part1.flashesAfter(100));
 
-        Day11 part2 = Day11.fromInput("input/day11.txt");
-        part2.solvePart2();
+        var part2 = OctopusGrid.of(Day11.fromInput("input/day11.txt"));
+        System.out.println(part2.stepsUntilSynchronised());
     }
 }
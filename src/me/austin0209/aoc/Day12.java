@@ -106,6 +106,118 @@ public class Day12 {
         System.out.println("Part 2 answer: " + this.paths.size());
     }
 
+    // The cave system in compressed sparse row form over small caves only. Two big caves are never adjacent, so
+    // every route through a big cave is small -> big -> small, and those routes are folded into weighted edges
+    // between the small caves (a self-loop for a return to the same cave). Cave u's edges are
+    // targets[offsets[u] .. offsets[u + 1]), and weights counts the distinct corridors each edge stands for.
+    static final class CaveGraph {
+        final String[] names;
+        final int start;
+        final int end;
+        final int[] offsets;
+        final int[] targets;
+        final long[] weights;
+
+        private CaveGraph(String[] names, int start, int end, int[] offsets, int[] targets, long[] weights) {
+            this.names = names;
+            this.start = start;
+            this.end = end;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.weights = weights;
+        }
+
+        int caveCount() {
+            return names.length;
+        }
+
+        static CaveGraph of(Map<String, Node> nodes) {
+            List<Node> small = nodes.values().stream()
+                    .filter(n -> !n.isBig)
+                    .sorted(Comparator.comparing(n -> n.id))
+                    .toList();
+            Map<Node, Integer> ids = new HashMap<>();
+            for (int i = 0; i < small.size(); i++) ids.put(small.get(i), i);
+
+            int[] offsets = new int[small.size() + 1];
+            List<Integer> targets = new ArrayList<>();
+            List<Long> weights = new ArrayList<>();
+            long[] row = new long[small.size()];
+            for (int u = 0; u < small.size(); u++) {
+                Arrays.fill(row, 0);
+                for (var neighbor : small.get(u).neighbors) {
+                    if (!neighbor.isBig) {
+                        row[ids.get(neighbor)]++;
+                        continue;
+                    }
+
+                    for (var beyond : neighbor.neighbors) {
+                        if (beyond.isBig)
+                            throw new IllegalArgumentException("Big caves " + neighbor + " and " + beyond + " give infinitely many paths");
+                        row[ids.get(beyond)]++;
+                    }
+                }
+
+                for (int v = 0; v < row.length; v++) {
+                    if (row[v] == 0) continue;
+                    targets.add(v);
+                    weights.add(row[v]);
+                }
+                offsets[u + 1] = targets.size();
+            }
+
+            return new CaveGraph(
+                    small.stream().map(n -> n.id).toArray(String[]::new),
+                    ids.get(nodes.get("start")),
+                    ids.get(nodes.get("end")),
+                    offsets,
+                    targets.stream().mapToInt(Integer::intValue).toArray(),
+                    weights.stream().mapToLong(Long::longValue).toArray());
+        }
+    }
+
+    // Counts paths without building them. The set of small caves visited so far is a bitmask, and the number of
+    // ways to reach the end depends only on (cave, visited mask, double visit used), so each such state is counted
+    // once and remembered.
+    static final class PathCounter {
+        final CaveGraph graph;
+        private final Map<Long, Long> memo = new HashMap<>();
+
+        PathCounter(CaveGraph graph) {
+            // Memo keys pack the visited mask above a 22-bit cave id and the double-visit flag.
+            if (graph.caveCount() > 40) throw new IllegalArgumentException("Too many small caves: " + graph.caveCount());
+            this.graph = graph;
+        }
+
+        long countPaths(boolean allowDoubleVisit) {
+            memo.clear();
+            return count(graph.start, 1L << graph.start, !allowDoubleVisit);
+        }
+
+        private long count(int cave, long visited, boolean doubleUsed) {
+            if (cave == graph.end) return 1;
+
+            long key = (visited << 23) | ((long) cave << 1) | (doubleUsed ? 1 : 0);
+            Long known = memo.get(key);
+            if (known != null) return known;
+
+            long total = 0;
+            for (int edge = graph.offsets[cave]; edge < graph.offsets[cave + 1]; edge++) {
+                int next = graph.targets[edge];
+                if (next == graph.start) continue;
+
+                if ((visited >> next & 1) == 0) {
+                    total += graph.weights[edge] * count(next, visited | 1L << next, doubleUsed);
+                } else if (!doubleUsed) {
+                    total += graph.weights[edge] * count(next, visited, true);
+                }
+            }
+
+            memo.put(key, total);
+            return total;
+        }
+    }
+
     static Day12 fromInput(String filename) throws FileNotFoundException {
         var result = new Day12();
         var nodes = result.nodes;
@@ -143,10 +255,8 @@ public class Day12 {
     }
 
     public static void main(String[] args) throws FileNotFoundException {
-        var part1 = Day12.fromInput("input/day12.txt");
-        part1.solvePart1();
-
-        var part2 = Day12.fromInput("input/day12.txt");
-        part2.solvePart2();
+        var counter = new PathCounter(CaveGraph.of(Day12.fromInput("input/day12.txt").nodes));
+        System.out.println("Part 1 answer: " + counter.countPaths(false));
+        System.out.println("Part 2 answer: " + counter.countPaths(true));
     }
 }
@@ -0,0 +1,100 @@
+package me.austin0209.aoc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Helpers shared by more than one day's solution.
+final class Util {
+    private Util() {}
+
+    // Cuts the file into chunks for parallel scanning and returns their start offsets followed by the file size. Each
+    // cut is moved just past the next newline so no line is split between chunks.
+    static List<Long> lineBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long chunkSize = Math.max(1 << 16, Math.min(1L << 30, size / (parallelism * 4L) + 1));
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        var probe = ByteBuffer.allocate(1024);
+        long position = chunkSize;
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) break;
+
+            int newline = 0;
+            while (newline < read && probe.get(newline) != '\n') newline++;
+            if (newline == read) {
+                // No newline in this probe, keep looking from where it ended.
+                position += read;
+                continue;
+            }
+
+            position += newline + 1;
+            if (position < size) boundaries.add(position);
+            position += chunkSize;
+        }
+        boundaries.add(size);
+
+        return boundaries;
+    }
+
+    // Returns the k-th smallest value, reordering the array in place. Expected O(n).
+    static int select(int[] values, int k) {
+        var random = ThreadLocalRandom.current();
+        int low = 0;
+        int high = values.length - 1;
+        while (low < high) {
+            int pivot = values[low + random.nextInt(high - low + 1)];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    int temp = values[i];
+                    values[i++] = values[j];
+                    values[j--] = temp;
+                }
+            }
+
+            if (k <= j) high = j;
+            else if (k >= i) low = i;
+            else return values[k];
+        }
+
+        return values[k];
+    }
+
+    static long select(long[] values, int k) {
+        var random = ThreadLocalRandom.current();
+        int low = 0;
+        int high = values.length - 1;
+        while (low < high) {
+            long pivot = values[low + random.nextInt(high - low + 1)];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    long temp = values[i];
+                    values[i++] = values[j];
+                    values[j--] = temp;
+                }
+            }
+
+            if (k <= j) high = j;
+            else if (k >= i) low = i;
+            else return values[k];
+        }
+
+        return values[k];
+    }
+}